@@ -0,0 +1,189 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Data sets the benchmarks run against. The CSVs are generated with
+ * the layout and volume of the JHU CSSE files as of 2020-08-23, and the
+ * ArcGIS testing locations page is checked in. All of it is synthetic
+ */
+final class Fixtures {
+  static final String TESTINGLOCATIONS = "testing_locations.json";
+  // Rows in the CSSE files on 2020-08-23
+  static final int USROWS = 3340;
+  static final int GLOBALROWS = 266;
+  static final int DAILYROWS = 3954;
+  static final int DAILYUSROWS = 3270;
+  // The time series run from 1/22/20 to the day before the report
+  static final LocalDate FIRSTDAY = LocalDate.of(2020, 1, 22);
+  static final int DAYS = 214;
+  private static final String LASTUPDATE = "2020-08-23 04:27:56";
+  private static final String[] STATES = {"California", "Texas", "New York", "Florida",
+      "Illinois", "Georgia", "Ohio", "Michigan", "Washington", "Arizona"};
+
+  private Fixtures() {}
+
+  static byte[] read(String name) throws IOException {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (in == null) {
+        throw new IOException("Missing fixture " + name);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        bytes.write(buffer, 0, read);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * time_series_covid19_confirmed_US.csv, with an Unassigned row at
+   * 0.0, 0.0 for every state
+   */
+  static byte[] usTimeSeries() {
+    Random random = new Random(1);
+    StringBuilder csv = new StringBuilder(
+        "UID,iso2,iso3,code3,FIPS,Admin2,Province_State,Country_Region,Lat,Long_,Combined_Key");
+    appendDates(csv);
+    for (int i = 0; i < USROWS; ++i) {
+      String state = STATES[i % STATES.length];
+      boolean unassigned = i % 100 == 0;
+      String county = unassigned ? "Unassigned" : "County " + i;
+      int fips = 1000 + i;
+      csv.append(84000000 + fips).append(",US,USA,840,").append(fips).append(".0,")
+          .append(county).append(',').append(state).append(",US,");
+      if (unassigned) {
+        csv.append("0.0,0.0,");
+      } else {
+        csv.append(coordinate(random, 25, 24, 8)).append(',')
+            .append(coordinate(random, -124, 57, 8)).append(',');
+      }
+      csv.append('"').append(county).append(", ").append(state).append(", US\"");
+      appendCases(csv, random, 100);
+    }
+    return bytes(csv);
+  }
+
+  /**
+   * time_series_covid19_confirmed_global.csv. Some countries have a
+   * comma in their name, like "Korea, South"
+   */
+  static byte[] globalTimeSeries() {
+    Random random = new Random(2);
+    StringBuilder csv = new StringBuilder("Province/State,Country/Region,Lat,Long");
+    appendDates(csv);
+    for (int i = 0; i < GLOBALROWS; ++i) {
+      if (i % 8 == 0) {
+        csv.append("Province ").append(i);
+      }
+      csv.append(',').append(country(i / 2)).append(',')
+          .append(coordinate(random, -50, 110, 4)).append(',')
+          .append(coordinate(random, -170, 340, 4));
+      appendCases(csv, random, 2000);
+    }
+    return bytes(csv);
+  }
+
+  /**
+   * A csse_covid_19_daily_reports CSV: US counties first, some without
+   * coordinates, then provinces and countries
+   */
+  static byte[] dailyReport() {
+    Random random = new Random(3);
+    StringBuilder csv = new StringBuilder("FIPS,Admin2,Province_State,Country_Region,"
+        + "Last_Update,Lat,Long_,Confirmed,Deaths,Recovered,Active,Combined_Key,"
+        + "Incidence_Rate,Case-Fatality_Ratio\n");
+    for (int i = 0; i < DAILYROWS; ++i) {
+      String combinedKey;
+      boolean us = i < DAILYUSROWS;
+      if (us) {
+        String county = "County " + i;
+        String state = STATES[i % STATES.length];
+        combinedKey = "\"" + county + ", " + state + ", US\"";
+        csv.append(1000 + i).append(',').append(county).append(',').append(state).append(",US,");
+      } else if (i % 3 == 0) {
+        String province = "Province " + i;
+        String country = country(i / 5);
+        combinedKey = "\"" + province + ", " + country.replace("\"", "") + "\"";
+        csv.append(",,").append(province).append(',').append(country).append(',');
+      } else {
+        String country = country(i / 5);
+        combinedKey = country;
+        csv.append(",,,").append(country).append(',');
+      }
+      csv.append(LASTUPDATE).append(',');
+      if (us && i % 60 == 0) {
+        csv.append(",,");
+      } else {
+        csv.append(coordinate(random, us ? 25 : -50, us ? 24 : 110, 8)).append(',')
+            .append(coordinate(random, us ? -124 : -170, us ? 57 : 340, 8)).append(',');
+      }
+      int confirmed = 1 + random.nextInt(us ? 5000 : 50000);
+      int deaths = random.nextInt(confirmed / 20 + 1);
+      int recovered = us ? 0 : random.nextInt(confirmed - deaths + 1);
+      csv.append(confirmed).append(',').append(deaths).append(',').append(recovered).append(',')
+          .append(confirmed - deaths - recovered).append(',').append(combinedKey).append(',')
+          .append(random.nextDouble() * 3000).append(',')
+          .append(100.0 * deaths / confirmed).append('\n');
+    }
+    return bytes(csv);
+  }
+
+  private static void appendDates(StringBuilder csv) {
+    for (int day = 0; day < DAYS; ++day) {
+      LocalDate date = FIRSTDAY.plusDays(day);
+      csv.append(',').append(date.getMonthValue()).append('/').append(date.getDayOfMonth())
+          .append('/').append(date.getYear() % 100);
+    }
+    csv.append('\n');
+  }
+
+  /**
+   * Cumulative cases, zero until a first case some time in the spring
+   */
+  private static void appendCases(StringBuilder csv, Random random, int dailyCases) {
+    int firstCase = 30 + random.nextInt(60);
+    int cases = 0;
+    for (int day = 0; day < DAYS; ++day) {
+      if (day >= firstCase) {
+        cases += random.nextInt(1 + dailyCases * (day - firstCase) / DAYS);
+      }
+      csv.append(',').append(cases);
+    }
+    csv.append('\n');
+  }
+
+  private static String country(int country) {
+    return country % 40 == 7 ? "\"Country " + country + ", South\"" : "Country " + country;
+  }
+
+  private static String coordinate(Random random, double from, double range, int places) {
+    return String.format(Locale.ROOT, "%." + places + "f", from + random.nextDouble() * range);
+  }
+
+  private static byte[] bytes(StringBuilder csv) {
+    return csv.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing each upstream data set, the work done on every data load.
+ * The legacy benchmarks run the parsers CsvReader replaced on the same
+ * bytes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+  private final CasesDataServlet casesDataServlet = new CasesDataServlet();
+  private final OverTimeCasesServlet overTimeCasesServlet = new OverTimeCasesServlet();
+  private final TestCentersServlet testCentersServlet = new TestCentersServlet();
+  private byte[] dailyReport;
+  private byte[] usTimeSeries;
+  private byte[] globalTimeSeries;
+  private byte[] testingLocations;
+
+  @Setup
+  public void setUp() throws IOException {
+    dailyReport = Fixtures.dailyReport();
+    usTimeSeries = Fixtures.usTimeSeries();
+    globalTimeSeries = Fixtures.globalTimeSeries();
+    testingLocations = Fixtures.read(Fixtures.TESTINGLOCATIONS);
+  }
+
+  @Benchmark
+  public Collection<CasesDataServlet.Report> parseDailyReport() {
+    return casesDataServlet.parseReports(dailyReport);
+  }
+
+  @Benchmark
+  public Collection<LegacyParsers.Report> legacyParseDailyReport() {
+    return LegacyParsers.parseReports(dailyReport);
+  }
+
+  @Benchmark
+  public TimeSeriesTable parseUsTimeSeries() {
+    return overTimeCasesServlet.fillDataMap(usTimeSeries, 5, 8, 11);
+  }
+
+  @Benchmark
+  public LegacyParsers.TimeSeries legacyParseUsTimeSeries() {
+    return LegacyParsers.fillDataMap(usTimeSeries, 7, 6, 5, 9);
+  }
+
+  @Benchmark
+  public TimeSeriesTable parseGlobalTimeSeries() {
+    return overTimeCasesServlet.fillDataMap(globalTimeSeries, 0, 2, 4);
+  }
+
+  @Benchmark
+  public LegacyParsers.TimeSeries legacyParseGlobalTimeSeries() {
+    return LegacyParsers.fillDataMap(globalTimeSeries, 0, 0, 0, 0);
+  }
+
+  @Benchmark
+  public Set<TestCentersServlet.Center> parseTestingLocations() throws IOException {
+    Set<TestCentersServlet.Center> centers = new HashSet<TestCentersServlet.Center>();
+    testCentersServlet.readCenterPage(new ByteArrayInputStream(testingLocations), centers);
+    return centers;
+  }
+
+  @Benchmark
+  public Set<LegacyParsers.Center> legacyParseTestingLocations() throws IOException {
+    return LegacyParsers.fillCenterSet(new ByteArrayInputStream(testingLocations));
+  }
+}
@@ -0,0 +1,351 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+
+/**
+ * The parsers the servlets used before CsvReader and JsonReader, kept
+ * as a baseline for the ingest benchmarks. The column handling,
+ * commaFlag included, is unchanged from those servlets
+ */
+final class LegacyParsers {
+  private LegacyParsers() {}
+
+  /**
+   * Parses a CSSE daily report the way CasesDataServlet.init() did
+   */
+  static Collection<Report> parseReports(byte[] data) {
+    Collection<Report> reports = new ArrayList<>();
+    Scanner scanner = new Scanner(new ByteArrayInputStream(data));
+
+    // Parse the data set
+    String line = scanner.nextLine();
+    while (scanner.hasNextLine()) {
+      // Skip the first line (header)
+      line = scanner.nextLine();
+      String[] cells = line.split(",");
+      // Ignore unassigned entires
+      if (cells[5].equals("") || cells[6].equals("")) { // Entries represent coordinates
+        continue;
+      }
+      // Countries with extra delimiter in name need to be bumped by one
+      if (cells[2].contains("\"")
+          || cells[3].contains("\"")) { // Entries represent city and country name
+        addReport(reports, cells, 1);
+        continue;
+      }
+      addReport(reports, cells, 0);
+    }
+    scanner.close();
+    return reports;
+  }
+
+  private static void addReport(Collection<Report> reports, String[] cells, int commaFlag) {
+    double lat = Double.parseDouble(cells[5 + commaFlag]);
+    double lng = Double.parseDouble(cells[6 + commaFlag]);
+    double perCap = 0.0;
+    int active = 0;
+    int confirmed = 0;
+    int deaths = 0;
+    int recovered = 0;
+    String territory = "";
+    if (!cells[10 + commaFlag].equals("")) { // Entry represents active cases
+      active = Integer.parseInt(cells[10 + commaFlag]);
+    }
+    if (!cells[7 + commaFlag].equals("")) { // Entry represents confirmed cases
+      confirmed = Integer.parseInt(cells[7 + commaFlag]);
+    }
+    if (!cells[8 + commaFlag].equals("")) { // Entry represents deaths
+      deaths = Integer.parseInt(cells[8 + commaFlag]);
+    }
+    if (!cells[9 + commaFlag].equals("")) { // Entry represents recovered cases
+      recovered = Integer.parseInt(cells[9 + commaFlag]);
+    }
+    if (!cells[1].equals("")) { // Entry represents territory name
+      territory = cells[1];
+    } else if (!cells[2].equals("")) { // For foreign territories, name will appear in index 2
+      territory = cells[2];
+    } else { // For countries, name will appear in index 3
+      territory = cells[3];
+    }
+    if (territory.substring(0, 1).equals("\"")) { // Some countries have " in name, remove the "
+      territory = territory.substring(1);
+    }
+    if (!(cells[cells.length - 2].equals("") || confirmed == 0)) { // Cases per 100,000 persons
+      perCap = Double.parseDouble(cells[cells.length - 2]);
+    }
+    reports.add(new Report(territory, lat, lng, active, confirmed, deaths, recovered, perCap));
+  }
+
+  /**
+   * Parses a CSSE time series the way OverTimeCasesServlet.init() did.
+   * The offsets are (7, 6, 5, 9) for the US table and (0, 0, 0, 0) for
+   * the global one
+   */
+  static TimeSeries fillDataMap(byte[] data, int datesOffset, int coordOffset,
+      int territoryOffset, int dataOffset) {
+    TimeSeries series = new TimeSeries();
+    Scanner scanner = new Scanner(new ByteArrayInputStream(data));
+    boolean header = true;
+    boolean firstAccess = true;
+
+    // Parse the data set
+    String line = scanner.nextLine();
+    while (scanner.hasNextLine()) {
+      // If header line, get the dates that are being tracked
+      if (header) {
+        header = false;
+        String[] cells = line.split(",");
+        for (int j = 4 + datesOffset; j < cells.length; ++j) {
+          if (!cells[j].equals("")) {
+            series.dates.add(cells[j]);
+          }
+        }
+      }
+      line = scanner.nextLine();
+      String[] cells = line.split(",");
+      List<Integer> cases = new ArrayList<Integer>();
+      String territory = "";
+
+      // If the name of the territory contains a ", the offset needs to be bumped
+      int tempCoordOffset = coordOffset;
+      int tempTerritoryOffset = territoryOffset;
+      int tempDataOffset = dataOffset;
+      if (cells[0 + tempCoordOffset].contains("\"") || cells[1 + tempCoordOffset].contains("\"")) {
+        ++tempCoordOffset;
+        ++tempDataOffset;
+        ++tempTerritoryOffset;
+      }
+      // Ignore unassigned entires
+      if (cells[2 + tempCoordOffset].equals("")
+          || cells[3 + tempCoordOffset].equals("")) { // Entries represent coordinates
+        continue;
+      }
+      if (cells[2 + tempCoordOffset].equals("0.0")
+          || cells[3 + tempCoordOffset].equals("0.0")) { // No coodrinates
+        continue;
+      }
+
+      if (!cells[0 + tempTerritoryOffset].equals("")) { // Entry represents territory name
+        territory = cells[0 + tempTerritoryOffset];
+      } else if (!cells[1 + tempTerritoryOffset].equals(
+                     "")) { // For countires, name will appear in index 1
+        territory = cells[1 + tempTerritoryOffset];
+      }
+      // Coordinates appear in these indicies
+      double lat = Double.parseDouble(cells[2 + tempCoordOffset]);
+      double lng = Double.parseDouble(cells[3 + tempCoordOffset]);
+
+      // For building total worldwide history
+      if (firstAccess) {
+        firstAccess = false;
+        for (int i = 4 + tempDataOffset; i < cells.length; ++i) {
+          if (!cells[i].equals("")) {
+            int numCase = Integer.parseInt(cells[i]);
+            cases.add(numCase);
+            // If looking at global cases, create new entry in world array
+            if (coordOffset == 0) {
+              series.worldCases.add(numCase);
+            }
+          }
+        }
+      } else {
+        int globalOffset = -1;
+        for (int i = 4 + tempDataOffset; i < cells.length; ++i) {
+          if (!cells[i].equals("")) {
+            int numCase = Integer.parseInt(cells[i]);
+            cases.add(numCase);
+            // If looking at global cases, add to entry in world array
+            if (coordOffset == 0) {
+              ++globalOffset;
+              series.worldCases.set(
+                  globalOffset, series.worldCases.get(globalOffset) + numCase);
+            }
+          }
+        }
+      }
+      series.timeReports.put(new LocLatLng(territory, lat, lng), cases);
+    }
+
+    scanner.close();
+    return series;
+  }
+
+  /**
+   * Reads an ArcGIS testing locations page one character at a time,
+   * the way TestCentersServlet.fillCenterSet did
+   */
+  static Set<Center> fillCenterSet(InputStream stream) throws IOException {
+    Set<Center> centers = new HashSet<Center>();
+    BufferedInputStream bufStream = new BufferedInputStream(stream);
+    Reader reader = new InputStreamReader(bufStream, Constants.ENCODING);
+    int c;
+
+    while ((c = reader.read()) >= 0) {
+      if (c == 'f' && reader.read() == 'u' && reader.read() == 'l' && reader.read() == 'l'
+          && reader.read() == 'a' && reader.read() == 'd' && reader.read() == 'd'
+          && reader.read() == 'r' && reader.read() == '"' && reader.read() == ':') {
+        String addr = readValue(reader);
+        // Read 9 times to skip ,"phone":
+        skip(reader, 9);
+        String phone = readValue(reader);
+        // Read 13 times to skip ,"operhours":
+        skip(reader, 13);
+        String hours = readValue(reader);
+        // Read 8 times to skip ,"name":
+        skip(reader, 8);
+        String name = readValue(reader);
+        // Read 3 times to skip },"
+        skip(reader, 3);
+
+        // Ensure that there is a geometry
+        if (!(reader.read() == 'g' && reader.read() == 'e' && reader.read() == 'o'
+                && reader.read() == 'm' && reader.read() == 'e' && reader.read() == 't'
+                && reader.read() == 'r' && reader.read() == 'y')) {
+          continue;
+        }
+        // Read 7 times to skip ":{"x":
+        skip(reader, 7);
+        // Construct longitude, which ends with comma
+        StringBuilder lngSB = new StringBuilder();
+        while ((c = reader.read()) != ',') {
+          lngSB.append((char) c);
+        }
+        double lng = Double.parseDouble(lngSB.toString());
+        // Read 4 times to skip "y":
+        skip(reader, 4);
+        // Construct latitude, which ends with brace
+        StringBuilder latSB = new StringBuilder();
+        while ((c = reader.read()) != '}') {
+          latSB.append((char) c);
+        }
+        double lat = Double.parseDouble(latSB.toString());
+
+        centers.add(new Center(lat, lng, name, addr, phone, hours));
+      }
+    }
+    return centers;
+  }
+
+  /**
+   * Reads a quoted string up to its closing quotation mark, or skips null.
+   * The old reader repeated this inline for each of the four fields
+   */
+  private static String readValue(Reader reader) throws IOException {
+    // Check if null
+    if (reader.read() == '"') {
+      StringBuilder value = new StringBuilder();
+      int c;
+      while ((c = reader.read()) != '"') {
+        value.append((char) c);
+      }
+      return value.toString();
+    }
+    // Read 3 times to skip null
+    skip(reader, 3);
+    return "Unknown";
+  }
+
+  private static void skip(Reader reader, int characters) throws IOException {
+    for (int i = 0; i < characters; ++i) {
+      reader.read();
+    }
+  }
+
+  /**
+   * A row of the daily report, as CasesDataServlet used to serialize it
+   */
+  static final class Report {
+    private final String territory;
+    private final double lat;
+    private final double lng;
+    private final double perCap;
+    private final int active;
+    private final int confirmed;
+    private final int deaths;
+    private final int recovered;
+
+    Report(String territory, double lat, double lng, int active, int confirmed, int deaths,
+        int recovered, double perCap) {
+      this.territory = territory;
+      this.lat = lat;
+      this.lng = lng;
+      this.active = active;
+      this.confirmed = confirmed;
+      this.deaths = deaths;
+      this.recovered = recovered;
+      this.perCap = perCap;
+    }
+  }
+
+  /**
+   * The old HashMap of boxed case lists, with the dates and world totals
+   */
+  static final class TimeSeries {
+    final Map<LocLatLng, List<Integer>> timeReports = new HashMap<LocLatLng, List<Integer>>();
+    final List<Integer> worldCases = new ArrayList<Integer>();
+    final List<String> dates = new ArrayList<String>();
+  }
+
+  /**
+   * Location name with its coordinates, the old map key
+   */
+  static final class LocLatLng {
+    private final String location;
+    private final double lat;
+    private final double lng;
+
+    LocLatLng(String location, double lat, double lng) {
+      this.location = location;
+      this.lat = lat;
+      this.lng = lng;
+    }
+  }
+
+  /**
+   * A testing center, as TestCentersServlet used to keep it
+   */
+  static final class Center {
+    private final double lat;
+    private final double lng;
+    private final String name;
+    private final String addr;
+    private final String phone;
+    private final String hours;
+
+    Center(double lat, double lng, String name, String addr, String phone, String hours) {
+      this.lat = lat;
+      this.lng = lng;
+      this.name = name;
+      this.addr = addr;
+      this.phone = phone;
+      this.hours = hours;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per request lookups: the nearest location for /timereport and
+ * the centers or clusters in a viewport for /testcenters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+  // Queries cycled through, so each call sees a different point or box
+  private static final int QUERIES = 1024;
+  // Roughly the viewport of a city at zoom 10
+  private static final double VIEWPORTDEGREES = 0.7;
+  private LocationIndex locationIndex;
+  private GridIndex gridIndex;
+  private ClusterIndex clusterIndex;
+  private final double[] queryLats = new double[QUERIES];
+  private final double[] queryLngs = new double[QUERIES];
+  private int query = 0;
+
+  @Setup
+  public void setUp() throws IOException {
+    OverTimeCasesServlet overTimeCasesServlet = new OverTimeCasesServlet();
+    TimeSeriesTable us =
+        overTimeCasesServlet.fillDataMap(Fixtures.usTimeSeries(), 5, 8, 11);
+    TimeSeriesTable global =
+        overTimeCasesServlet.fillDataMap(Fixtures.globalTimeSeries(), 0, 2, 4);
+    int size = global.size() + us.size();
+    double[] lats = new double[size];
+    double[] lngs = new double[size];
+    boolean[] usReport = new boolean[size];
+    for (int i = 0; i < size; ++i) {
+      TimeSeriesTable table = i < global.size() ? global : us;
+      int row = i < global.size() ? i : i - global.size();
+      lats[i] = table.getLat(row);
+      lngs[i] = table.getLng(row);
+      usReport[i] = table == us;
+    }
+    locationIndex = new LocationIndex(lats, lngs, usReport);
+
+    Set<TestCentersServlet.Center> centers = new HashSet<TestCentersServlet.Center>();
+    new TestCentersServlet().readCenterPage(
+        new ByteArrayInputStream(Fixtures.read(Fixtures.TESTINGLOCATIONS)), centers);
+    double[] centerLats = new double[centers.size()];
+    double[] centerLngs = new double[centers.size()];
+    int i = 0;
+    for (TestCentersServlet.Center center : centers) {
+      centerLats[i] = center.getLat();
+      centerLngs[i] = center.getLng();
+      ++i;
+    }
+    gridIndex = new GridIndex(centerLats, centerLngs, 0.5);
+    clusterIndex = new ClusterIndex(centerLats, centerLngs, 10);
+
+    // Points over the continental US, where most of the data is
+    Random random = new Random(168);
+    for (int q = 0; q < QUERIES; ++q) {
+      queryLats[q] = 25 + random.nextDouble() * 23;
+      queryLngs[q] = -124 + random.nextDouble() * 57;
+    }
+  }
+
+  private int nextQuery() {
+    query = (query + 1) % QUERIES;
+    return query;
+  }
+
+  @Benchmark
+  public int nearestManhattan() {
+    int q = nextQuery();
+    return locationIndex.nearest(queryLats[q], queryLngs[q], LocationIndex.Metric.MANHATTAN);
+  }
+
+  @Benchmark
+  public int nearestGreatCircle() {
+    int q = nextQuery();
+    return locationIndex.nearest(queryLats[q], queryLngs[q], LocationIndex.Metric.GREAT_CIRCLE);
+  }
+
+  @Benchmark
+  public int[] viewportCenters() {
+    int q = nextQuery();
+    return gridIndex.query(queryLats[q], queryLngs[q], queryLats[q] + VIEWPORTDEGREES,
+        queryLngs[q] + VIEWPORTDEGREES, Integer.MAX_VALUE);
+  }
+
+  @Benchmark
+  public List<ClusterIndex.Cluster> countryClusters() {
+    return clusterIndex.query(4, 24.0, -125.0, 50.0, -66.0, Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning parsed data into response bodies
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+  private final Gson gson = new Gson();
+  private Collection<CasesDataServlet.Report> reports;
+  private List<TestCentersServlet.Center> centers;
+  private String reportsJson;
+
+  @Setup
+  public void setUp() throws IOException {
+    reports = new CasesDataServlet().parseReports(Fixtures.dailyReport());
+    Set<TestCentersServlet.Center> centerSet = new HashSet<TestCentersServlet.Center>();
+    new TestCentersServlet().readCenterPage(
+        new ByteArrayInputStream(Fixtures.read(Fixtures.TESTINGLOCATIONS)), centerSet);
+    centers = new ArrayList<TestCentersServlet.Center>(centerSet);
+    reportsJson = gson.toJson(reports);
+  }
+
+  @Benchmark
+  public String reportsToJson() {
+    return gson.toJson(reports);
+  }
+
+  @Benchmark
+  public String centersToJson() {
+    return gson.toJson(centers);
+  }
+
+  @Benchmark
+  public EncodedPayload encodeReports() {
+    return new EncodedPayload(reportsJson);
+  }
+}
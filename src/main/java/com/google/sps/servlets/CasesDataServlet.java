@@ -15,16 +15,24 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.sps.servlets.Constants;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Scanner;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,142 +42,373 @@ import javax.servlet.http.HttpServletResponse;
  * Builds and returns case data as a JSON array, e.g.
  * [{"lat": 38.4404675, "lng": -122.7144313, "active": 5,
  * "confirmed": 20, "deaths": 0, "recovered": 15}]
+ * Pass date=mm-dd-yyyy for the reports of an earlier day.
+ * POST totals the active cases along routes instead
  */
 @WebServlet("/report")
 public class CasesDataServlet extends HttpServlet {
-  private String reportsJson;
+  // Limits on the size of a route request
+  private static final int MAXROUTEBYTES = 1 << 20;
+  private static final int MAXROUTES = 10;
+  private static final int MAXROUTEPOINTS = 20000;
+  // Number of past days kept encoded, and how long a day without reports is remembered
+  private static final int HOTDAYS = 16;
+  private static final long UNARCHIVEDMILLIS = 30000;
+  private final DataFetcher fetcher = new DataFetcher();
+  private RefreshingDataset<ReportSet> reports;
+  private ReportHistory history;
+  private ReadThroughCache<LocalDate, EncodedPayload> pastReports;
 
   /**
-   * Builds Json array using data set
+   * Starts building the Json array from the data set and keeps it up to date.
+   * Earlier daily reports are archived as they are asked for
    */
   @Override
   public void init() {
+    reports = new RefreshingDataset<ReportSet>("report", this::buildLatestReports);
+    reports.start();
+    initHistory(new ReportHistory(fetcher));
+  }
+
+  /**
+   * Serves past days from the history, keeping the most asked for encoded
+   */
+  private void initHistory(ReportHistory reportHistory) {
+    history = reportHistory;
+    pastReports = new ReadThroughCache<LocalDate, EncodedPayload>(
+        HOTDAYS, UNARCHIVEDMILLIS, this::encodePastReports);
+  }
+
+  @Override
+  public void destroy() {
+    reports.stop();
+  }
+
+  /**
+   * Waits for the first attempt to build the Json array to finish
+   *
+   * @return false if it is still running after the timeout
+   */
+  boolean awaitFirstLoad(long timeout, TimeUnit unit) throws InterruptedException {
+    return reports.awaitFirstLoad(timeout, unit);
+  }
+
+  /**
+   * Serves reports parsed from a daily report CSV instead of the latest
+   * data set, for tests that must not download it
+   */
+  void initFromData(byte[] data) {
+    initFromData(data, new ReportHistory(fetcher));
+  }
+
+  /**
+   * Also serves past days from the given history
+   */
+  void initFromData(byte[] data, ReportHistory reportHistory) {
+    reports = new RefreshingDataset<ReportSet>("report", () -> buildReportSet(data));
+    reports.start();
+    initHistory(reportHistory);
+  }
+
+  /**
+   * Builds Json array using the latest data set
+   */
+  private ReportSet buildLatestReports() throws IOException {
+    long start = System.nanoTime();
+    Path data = connectToData();
+    if (data == null) {
+      throw new IOException("Unable to open connection");
+    }
+    byte[] bytes = Files.readAllBytes(data);
+    Metrics.recordPhase("report", "download", start);
+    return buildReportSet(bytes);
+  }
+
+  /**
+   * Builds Json array from a daily report CSV, encoded ready to serve,
+   * and indexes the reports for route queries
+   */
+  private ReportSet buildReportSet(byte[] data) {
+    long start = System.nanoTime();
+    Collection<Report> reports = parseReports(data);
+    start = Metrics.recordPhase("report", "parse", start);
+    Gson gson = new Gson();
+    EncodedPayload payload = new EncodedPayload(gson.toJson(reports));
+    Metrics.recordPhase("report", "serialize", start);
+
+    int size = reports.size();
+    String[] territories = new String[size];
+    double[] lats = new double[size];
+    double[] lngs = new double[size];
+    int[] active = new int[size];
+    int i = 0;
+    for (Report report : reports) {
+      territories[i] = report.combinedKey;
+      lats[i] = report.lat;
+      lngs[i] = report.lng;
+      active[i] = report.active;
+      ++i;
+    }
+    return new ReportSet(payload, territories, lats, lngs, active);
+  }
+
+  /**
+   * Parses a daily report CSV into reports
+   */
+  Collection<Report> parseReports(byte[] data) {
     Collection<Report> reports = new ArrayList<>();
-    Scanner scanner = connectToData();
-
-    // Parse the data set
-    String line = scanner.nextLine();
-    while (scanner.hasNextLine()) {
-      // Skip the first line (header)
-      line = scanner.nextLine();
-      String[] cells = line.split(",");
+    CsvReader csv = new CsvReader(data);
+    // Skip the first line (header)
+    csv.next();
+    while (csv.next()) {
       // Ignore unassigned entires
-      if (cells[5].equals("") || cells[6].equals("")) { // Entries represent coordinates
+      if (csv.isEmpty(5) || csv.isEmpty(6)) { // Entries represent coordinates
         continue;
       }
-      // Countries with extra delimiter in name need to be bumped by one
-      if (cells[2].contains("\"")
-          || cells[3].contains("\"")) { // Entries represent city and country name
-        addReport(reports, cells, 1);
-        continue;
-      }
-      addReport(reports, cells, 0);
+      addReport(reports, csv);
     }
-    scanner.close();
-    Gson gson = new Gson();
-    reportsJson = gson.toJson(reports);
+    return reports;
   }
 
   /**
-   * Returns location-based COIVD-19 data
+   * Returns location-based COIVD-19 data, or 304 if the client's copy is current,
+   * or 503 if the data has not loaded yet
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setCharacterEncoding(Constants.ENCODING);
     response.setContentType(Constants.CASESCTYPE);
-    response.getWriter().println(reportsJson);
+    String date = request.getParameter("date");
+    if (date != null) {
+      writePastReports(date, request, response);
+      return;
+    }
+    ReportSet latest = reports.get();
+    if (latest == null) {
+      reports.sendUnavailable(response);
+      return;
+    }
+    latest.payload.writeTo(request, response);
   }
 
-  public String getReportsJson() {
-    return reportsJson;
+  /**
+   * Writes the archived reports of a day, archiving them first if needed,
+   * or 404 if the day has none, or 503 if its report cannot be archived
+   */
+  private void writePastReports(
+      String date, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LocalDate day;
+    try {
+      day = LocalDate.parse(date, ReportHistory.FILEDATE);
+    } catch (DateTimeParseException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected date=mm-dd-yyyy");
+      return;
+    }
+    EncodedPayload payload;
+    try {
+      payload = pastReports.get(day);
+    } catch (UncheckedIOException e) {
+      System.out.println("Unable to archive reports for " + day + ": " + e.getCause());
+      response.sendError(
+          HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Reports for " + date + " are unavailable");
+      return;
+    }
+    if (payload != null) {
+      payload.writeTo(request, response);
+    } else {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "No reports for " + date);
+    }
   }
 
   /**
-   * Establish connection to live Coivd-19 data set
+   * @return Json array of the day's archived reports, or null if it has none
+   * @throws UncheckedIOException if the day's report cannot be archived
    */
-  private Scanner connectToData() {
-    URL covidDataUrl = null;
-    HttpURLConnection connection = null;
-    int responseCode = 0;
-    Scanner scanner = null;
+  private EncodedPayload encodePastReports(LocalDate day) {
+    ReportArchive.DayReports archived;
+    try {
+      archived = history.get(day, getDay());
+    } catch (IOException e) {
+      // Thrown through the cache, so the failure is not remembered like a missing day
+      throw new UncheckedIOException(e);
+    }
+    if (archived == null) {
+      return null;
+    }
+    List<Report> reports = new ArrayList<Report>(archived.size());
+    for (int i = 0; i < archived.size(); ++i) {
+      reports.add(new Report(archived.getTerritory(i), archived.getLat(i), archived.getLng(i),
+          archived.getActive(i), archived.getConfirmed(i), archived.getDeaths(i),
+          archived.getRecovered(i), archived.getPerCap(i)));
+    }
+    return new EncodedPayload(new Gson().toJson(reports));
+  }
 
+  /**
+   * Totals active cases along routes. Takes {"routes": ["encoded polyline", ...]}
+   * and returns [{"active": 1234, "territories": ["San Diego, California, US", ...]}],
+   * one entry per route. Every point on a route counts the report closest to it,
+   * but each report only counts once per route
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setCharacterEncoding(Constants.ENCODING);
+    response.setContentType(Constants.CASESCTYPE);
+    ReportSet latest = reports.get();
+    if (latest == null) {
+      reports.sendUnavailable(response);
+      return;
+    }
+    String body = RequestBodies.read(request, MAXROUTEBYTES);
+    if (body == null) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Too many routes");
+      return;
+    }
+
+    Gson gson = new Gson();
+    List<RouteCases> routeCases = new ArrayList<RouteCases>();
     try {
-      String date = getDate();
-      String url =
-          "https://raw.githubusercontent.com/CSSEGISandData/COVID-19/master/csse_covid_19_data/csse_covid_19_daily_reports/"
-          + date + ".csv";
-      covidDataUrl = new URL(url);
-      connection = (HttpURLConnection) covidDataUrl.openConnection();
-      connection.setRequestMethod("GET");
-      responseCode = connection.getResponseCode();
-      if (responseCode == HttpURLConnection.HTTP_OK) {
-        scanner = new Scanner(covidDataUrl.openStream());
+      RouteRequest routeRequest = gson.fromJson(body, RouteRequest.class);
+      if (routeRequest == null || routeRequest.routes == null
+          || routeRequest.routes.length > MAXROUTES) {
+        throw new IllegalArgumentException("Expected up to " + MAXROUTES + " routes");
       }
-    } catch (IOException e) {
-      System.out.println("Unable to open connection");
+      for (String route : routeRequest.routes) {
+        if (route == null) {
+          throw new IllegalArgumentException("Missing route");
+        }
+        double[] points = Polylines.decode(route);
+        if (points.length / 2 > MAXROUTEPOINTS) {
+          throw new IllegalArgumentException("Route has too many points");
+        }
+        routeCases.add(latest.alongRoute(points));
+      }
+    } catch (JsonParseException | IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid routes");
+      return;
     }
-    return scanner;
+    response.getWriter().println(gson.toJson(routeCases));
+  }
+
+  public String getReportsJson() {
+    ReportSet latest = reports.get();
+    return latest == null ? null : latest.payload.getText();
   }
 
   /**
-   * Returns the date in mm-dd-yyyy format to retrieve most recent data set
+   * Establish connection to live Coivd-19 data set
+   */
+  private Path connectToData() {
+    return fetcher.fetch(ReportHistory.url(getDay()));
+  }
+
+  /**
+   * Returns the day of the most recent data set
    */
-  private String getDate() {
+  private LocalDate getDay() {
     Clock today = Clock.systemUTC();
     Instant in = today.instant();
     // Instant to string format: yyyy-mm-ddThh:mm:ss.msZ
     int hour = Integer.parseInt(in.toString().substring(11, 13));
     in = in.minus(1, ChronoUnit.DAYS);
     // The dataset updates at 5. If it is before 5, need previous set
-    if (hour < 5) {
+    if (hour < Constants.DATAUPDATEHOUR) {
       in = in.minus(1, ChronoUnit.DAYS);
     }
-    // dateTime format : yyyy/mm/dd
-    String dateTime = in.toString();
-    String year = dateTime.substring(0, 4);
-    String month = dateTime.substring(5, 7);
-    String day = dateTime.substring(8, 10);
-    return month + "-" + day + "-" + year;
+    return in.atZone(ZoneOffset.UTC).toLocalDate();
   }
 
   /**
-   * Creates a report based on the data and adds it to the collection
+   * Creates a report based on the current record and adds it to the collection
    */
-  private void addReport(Collection<Report> reports, String[] cells, int commaFlag) {
-    double lat = Double.parseDouble(cells[5 + commaFlag]);
-    double lng = Double.parseDouble(cells[6 + commaFlag]);
+  private void addReport(Collection<Report> reports, CsvReader csv) {
+    double lat = csv.getDouble(5);
+    double lng = csv.getDouble(6);
     double perCap = 0.0;
     int active = 0;
     int confirmed = 0;
     int deaths = 0;
     int recovered = 0;
     String territory = "";
-    if (!cells[10 + commaFlag].equals("")) { // Entry represents active cases
-      active = Integer.parseInt(cells[10 + commaFlag]);
+    if (!csv.isEmpty(10)) { // Entry represents active cases
+      active = csv.getInt(10);
     }
-    if (!cells[7 + commaFlag].equals("")) { // Entry represents confirmed cases
-      confirmed = Integer.parseInt(cells[7 + commaFlag]);
+    if (!csv.isEmpty(7)) { // Entry represents confirmed cases
+      confirmed = csv.getInt(7);
     }
-    if (!cells[8 + commaFlag].equals("")) { // Entry represents deaths
-      deaths = Integer.parseInt(cells[8 + commaFlag]);
+    if (!csv.isEmpty(8)) { // Entry represents deaths
+      deaths = csv.getInt(8);
     }
-    if (!cells[9 + commaFlag].equals("")) { // Entry represents recovered cases
-      recovered = Integer.parseInt(cells[9 + commaFlag]);
+    if (!csv.isEmpty(9)) { // Entry represents recovered cases
+      recovered = csv.getInt(9);
     }
-    if (!cells[1].equals("")) { // Entry represents territory name
-      territory = cells[1];
-    } else if (!cells[2].equals("")) { // For foreign territories, name will appear in index 2
-      territory = cells[2];
+    if (!csv.isEmpty(1)) { // Entry represents territory name
+      territory = csv.getString(1);
+    } else if (!csv.isEmpty(2)) { // For foreign territories, name will appear in index 2
+      territory = csv.getString(2);
     } else { // For countries, name will appear in index 3
-      territory = cells[3];
+      territory = csv.getString(3);
+    }
+    int perCapField = csv.fieldCount() - 2;
+    if (!(csv.isEmpty(perCapField) || confirmed == 0)) { // Cases per 100,000 persons
+      perCap = csv.getDouble(perCapField);
     }
-    if (territory.substring(0, 1).equals("\"")) { // Some countries have " in name, remove the "
-      territory = territory.substring(1);
+    Report report = new Report(territory, lat, lng, active, confirmed, deaths, recovered, perCap);
+    // County names repeat across states, so routes tell territories apart by the full name
+    report.combinedKey = csv.isEmpty(11) ? territory : csv.getString(11);
+    reports.add(report);
+  }
+
+  /**
+   * Reports encoded ready to serve, with their territories and active cases
+   * indexed by location. Never modified; a refresh replaces the whole object
+   */
+  private static final class ReportSet {
+    private final EncodedPayload payload;
+    private final String[] territories;
+    private final int[] active;
+    private final LocationIndex index;
+
+    ReportSet(EncodedPayload payload, String[] territories, double[] lats, double[] lngs,
+        int[] active) {
+      this.payload = payload;
+      this.territories = territories;
+      this.active = active;
+      index = new LocationIndex(lats, lngs, new boolean[lats.length]);
     }
-    if (!(cells[cells.length - 2].equals("") || confirmed == 0)) { // Cases per 100,000 persons
-      perCap = Double.parseDouble(cells[cells.length - 2]);
+
+    /**
+     * @param points latitude and longitude of every point, interleaved
+     */
+    RouteCases alongRoute(double[] points) {
+      RouteCases route = new RouteCases();
+      Set<Integer> counted = new LinkedHashSet<Integer>();
+      for (int i = 0; i + 1 < points.length; i += 2) {
+        int closest = index.nearest(points[i], points[i + 1], LocationIndex.Metric.MANHATTAN);
+        if (closest >= 0 && counted.add(closest)) {
+          route.active += active[closest];
+          route.territories.add(territories[closest]);
+        }
+      }
+      return route;
     }
-    reports.add(new Report(territory, lat, lng, active, confirmed, deaths, recovered, perCap));
+  }
+
+  /**
+   * Body of a route request
+   */
+  private static final class RouteRequest {
+    private String[] routes;
+  }
+
+  /**
+   * Active cases near a route and the distinct territories they are in,
+   * named by their combined key
+   */
+  private static final class RouteCases {
+    private int active = 0;
+    private Set<String> territories = new LinkedHashSet<String>();
   }
 
   /**
@@ -185,6 +424,8 @@ public class CasesDataServlet extends HttpServlet {
     private int confirmed;
     private int deaths;
     private int recovered;
+    // Full name of the territory, e.g. "Washington, Oregon, US"; not served
+    private transient String combinedKey;
 
     public Report(String territory, double lat, double lng, int active, int confirmed, int deaths,
         int recovered, double perCap) {
@@ -0,0 +1,188 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups coordinates into clusters for every map zoom level below a
+ * threshold. A level's clusters are the occupied cells of a lat/lng grid
+ * whose cells halve in size with each zoom level, so the finest level is
+ * built from the coordinates and every coarser level by merging 2x2
+ * blocks of the level below. Built once, then safe to share between
+ * request threads
+ */
+final class ClusterIndex {
+  // Cells per 360 degrees of longitude at zoom 0
+  private static final int ZOOMZEROCELLS = 4;
+  // Coarsest grid used to look up a level's clusters
+  private static final double MINLOOKUPDEGREES = 1.0;
+
+  private final Cluster[][] levels;
+  private final GridIndex[] lookups;
+
+  /**
+   * Builds clusters for zoom levels 0 to levelCount - 1
+   */
+  ClusterIndex(double[] lats, double[] lngs, int levelCount) {
+    levels = new Cluster[levelCount][];
+    lookups = new GridIndex[levelCount];
+
+    // Finest level straight from the coordinates
+    int finest = levelCount - 1;
+    double cellDegrees = cellDegrees(finest);
+    int columns = (int) Math.ceil(360 / cellDegrees);
+    Map<Long, Cluster> cells = new HashMap<Long, Cluster>();
+    for (int i = 0; i < lats.length; ++i) {
+      long row = (long) Math.floor((lats[i] + 90) / cellDegrees);
+      long column = Math.min((long) Math.floor((lngs[i] + 180) / cellDegrees), columns - 1);
+      Cluster cluster = cells.get(row * columns + column);
+      if (cluster == null) {
+        cluster = new Cluster(lats[i], lngs[i]);
+        cells.put(row * columns + column, cluster);
+      }
+      cluster.add(lats[i], lngs[i], 1);
+    }
+
+    // Each coarser cell covers a 2x2 block of the finer cells
+    for (int level = finest; level >= 0; --level) {
+      setLevel(level, cells.values());
+      if (level == 0) {
+        break;
+      }
+      int parentColumns = columns / 2;
+      Map<Long, Cluster> parents = new HashMap<Long, Cluster>();
+      for (Map.Entry<Long, Cluster> entry : cells.entrySet()) {
+        long row = entry.getKey() / columns;
+        long column = entry.getKey() % columns;
+        long key = (row / 2) * parentColumns + column / 2;
+        Cluster child = entry.getValue();
+        Cluster parent = parents.get(key);
+        if (parent == null) {
+          parent = new Cluster(child.south, child.west);
+          parents.put(key, parent);
+        }
+        parent.merge(child);
+      }
+      cells = parents;
+      columns = parentColumns;
+    }
+  }
+
+  /**
+   * @return number of zoom levels with clusters
+   */
+  int levels() {
+    return levels.length;
+  }
+
+  /**
+   * Finds clusters whose centroid is strictly inside a bounding box.
+   * Zoom levels past the finest level use the finest level
+   *
+   * @param limit most clusters to return
+   */
+  List<Cluster> query(
+      int zoom, double south, double west, double north, double east, int limit) {
+    int level = Math.min(Math.max(zoom, 0), levels.length - 1);
+    List<Cluster> results = new ArrayList<Cluster>();
+    for (int index : lookups[level].query(south, west, north, east, limit)) {
+      results.add(levels[level][index]);
+    }
+    return results;
+  }
+
+  private void setLevel(int level, Iterable<Cluster> cells) {
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    for (Cluster cluster : cells) {
+      clusters.add(cluster.finish());
+    }
+    levels[level] = clusters.toArray(new Cluster[0]);
+    double[] lats = new double[clusters.size()];
+    double[] lngs = new double[clusters.size()];
+    for (int i = 0; i < lats.length; ++i) {
+      lats[i] = levels[level][i].lat;
+      lngs[i] = levels[level][i].lng;
+    }
+    lookups[level] = new GridIndex(
+        lats, lngs, Math.max(cellDegrees(level), MINLOOKUPDEGREES));
+  }
+
+  private static double cellDegrees(int zoom) {
+    return 360.0 / (ZOOMZEROCELLS << zoom);
+  }
+
+  /**
+   * Number of centers in a cell, their centroid, and the box around them
+   */
+  static final class Cluster {
+    private double lat;
+    private double lng;
+    private int count = 0;
+    private double south;
+    private double west;
+    private double north;
+    private double east;
+    // Running sums while the cluster is being built
+    private transient double latSum = 0;
+    private transient double lngSum = 0;
+
+    private Cluster(double lat, double lng) {
+      south = lat;
+      north = lat;
+      west = lng;
+      east = lng;
+    }
+
+    private void add(double lat, double lng, int weight) {
+      latSum += lat * weight;
+      lngSum += lng * weight;
+      count += weight;
+      south = Math.min(south, lat);
+      north = Math.max(north, lat);
+      west = Math.min(west, lng);
+      east = Math.max(east, lng);
+    }
+
+    private void merge(Cluster child) {
+      add(child.lat, child.lng, child.count);
+      south = Math.min(south, child.south);
+      north = Math.max(north, child.north);
+      west = Math.min(west, child.west);
+      east = Math.max(east, child.east);
+    }
+
+    private Cluster finish() {
+      lat = latSum / count;
+      lng = lngSum / count;
+      return this;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    double getLat() {
+      return lat;
+    }
+
+    double getLng() {
+      return lng;
+    }
+  }
+}
@@ -5,4 +5,5 @@ public final class Constants {
   public static final String CASESCTYPE = "application/json"; // HttpServletResponse content type
   public static final String LINKCTYPE = "text/html"; // HttpServletResponse content type
   public static final String ENCODING = "UTF-8"; // HttpServletResponse character encoding
+  public static final int DATAUPDATEHOUR = 5; // Hour (UTC) the JHU CSSE data sets roll over
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads RFC 4180 CSV records straight out of a UTF-8 byte array.
+ * Fields are kept as offsets into the array, and numbers are parsed
+ * from the bytes, so a record only allocates when a String is asked for.
+ * Quoted fields may contain commas, line breaks and doubled quotes
+ */
+final class CsvReader {
+  // Powers of ten that are exact as doubles
+  private static final double[] POWERSOFTEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+      1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private final byte[] data;
+  private final int end;
+  private int position;
+  private int fieldCount = 0;
+  // Start and end offsets of each field in the current record, quotes excluded
+  private int[] starts = new int[64];
+  private int[] ends = new int[64];
+  // Whether a field contains doubled quotes that need unescaping
+  private boolean[] escaped = new boolean[64];
+
+  CsvReader(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  /**
+   * Reads only the records between start and end, which should be record boundaries
+   */
+  CsvReader(byte[] data, int start, int end) {
+    this.data = data;
+    this.end = end;
+    position = start;
+    // Skip a UTF-8 byte order mark
+    if (position + 2 < end && data[position] == (byte) 0xEF && data[position + 1] == (byte) 0xBB
+        && data[position + 2] == (byte) 0xBF) {
+      position += 3;
+    }
+  }
+
+  /**
+   * Advances to the next record
+   *
+   * @return false once every record has been read
+   */
+  boolean next() {
+    fieldCount = 0;
+    if (position >= end) {
+      return false;
+    }
+    while (true) {
+      if (fieldCount == starts.length) {
+        starts = Arrays.copyOf(starts, fieldCount * 2);
+        ends = Arrays.copyOf(ends, fieldCount * 2);
+        escaped = Arrays.copyOf(escaped, fieldCount * 2);
+      }
+      int field = fieldCount++;
+      escaped[field] = false;
+      if (position < end && data[position] == '"') {
+        // Quoted field runs until a quote that is not doubled
+        starts[field] = ++position;
+        while (position < end) {
+          if (data[position] == '"') {
+            if (position + 1 < end && data[position + 1] == '"') {
+              escaped[field] = true;
+              position += 2;
+              continue;
+            }
+            break;
+          }
+          ++position;
+        }
+        ends[field] = position;
+        ++position;
+        // Tolerate stray characters between the closing quote and the delimiter
+        while (position < end && data[position] != ',' && data[position] != '\n'
+            && data[position] != '\r') {
+          ++position;
+        }
+      } else {
+        starts[field] = position;
+        while (position < end && data[position] != ',' && data[position] != '\n'
+            && data[position] != '\r') {
+          ++position;
+        }
+        ends[field] = position;
+      }
+
+      if (position >= end) {
+        return true;
+      }
+      byte delimiter = data[position++];
+      if (delimiter == ',') {
+        continue;
+      }
+      if (delimiter == '\r' && position < end && data[position] == '\n') {
+        ++position;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Finds a record boundary without parsing fields, so records can be
+   * split into ranges that are read separately
+   *
+   * @param start offset of a record boundary to scan from
+   * @return offset of the first record starting at or after target, or end
+   */
+  static int nextRecordStart(byte[] data, int start, int target, int end) {
+    boolean quoted = false;
+    for (int i = start; i < end; ++i) {
+      // A doubled quote flips twice, so only real field quotes count
+      if (data[i] == '"') {
+        quoted = !quoted;
+      } else if (data[i] == '\n' && !quoted && i + 1 >= target) {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * @return offset of the first byte not yet read
+   */
+  int position() {
+    return position;
+  }
+
+  /**
+   * @return number of fields in the current record
+   */
+  int fieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * @return true if the field is missing from the record or has no characters
+   */
+  boolean isEmpty(int field) {
+    return field >= fieldCount || starts[field] == ends[field];
+  }
+
+  /**
+   * @return the field's text with quotes removed, or "" if it is missing
+   */
+  String getString(int field) {
+    if (field >= fieldCount) {
+      return "";
+    }
+    String value =
+        new String(data, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+    return escaped[field] ? value.replace("\"\"", "\"") : value;
+  }
+
+  /**
+   * @return true if the field holds exactly the given ASCII text
+   */
+  boolean fieldEquals(int field, String text) {
+    if (field >= fieldCount || ends[field] - starts[field] != text.length()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); ++i) {
+      if (data[starts[field] + i] != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the field's text contains the given ASCII text
+   */
+  boolean fieldContains(int field, String text) {
+    if (field >= fieldCount) {
+      return false;
+    }
+    int last = ends[field] - text.length();
+    for (int offset = starts[field]; offset <= last; ++offset) {
+      int i = 0;
+      while (i < text.length() && data[offset + i] == text.charAt(i)) {
+        ++i;
+      }
+      if (i == text.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses an integer field. Decimal values are truncated
+   *
+   * @throws NumberFormatException if the field is empty or not a number
+   */
+  int getInt(int field) {
+    if (isEmpty(field)) {
+      throw new NumberFormatException("Empty field " + field);
+    }
+    int offset = starts[field];
+    int last = ends[field];
+    boolean negative = data[offset] == '-';
+    if (negative || data[offset] == '+') {
+      ++offset;
+    }
+    if (offset == last) {
+      throw new NumberFormatException(getString(field));
+    }
+    long value = 0;
+    for (; offset < last; ++offset) {
+      int digit = data[offset] - '0';
+      if (digit < 0 || digit > 9) {
+        return (int) getDouble(field);
+      }
+      value = value * 10 + digit;
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw new NumberFormatException(getString(field));
+      }
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw new NumberFormatException(getString(field));
+    }
+    return (int) value;
+  }
+
+  /**
+   * Parses a decimal field. Plain decimals are converted from the bytes;
+   * anything else, like exponents, goes through Double.parseDouble
+   *
+   * @throws NumberFormatException if the field is empty or not a number
+   */
+  double getDouble(int field) {
+    if (isEmpty(field)) {
+      throw new NumberFormatException("Empty field " + field);
+    }
+    int offset = starts[field];
+    int last = ends[field];
+    boolean negative = data[offset] == '-';
+    if (negative || data[offset] == '+') {
+      ++offset;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean seenPoint = false;
+    boolean seenDigit = false;
+    for (; offset < last; ++offset) {
+      byte c = data[offset];
+      if (c == '.' && !seenPoint) {
+        seenPoint = true;
+        continue;
+      }
+      int digit = c - '0';
+      if (digit < 0 || digit > 9) {
+        return Double.parseDouble(getString(field));
+      }
+      seenDigit = true;
+      // Leading zeros do not count towards precision
+      if (mantissa != 0 || digit != 0) {
+        ++digits;
+      }
+      mantissa = mantissa * 10 + digit;
+      if (seenPoint) {
+        ++fractionDigits;
+      }
+    }
+    // A single division is correctly rounded only while both operands are exact
+    if (!seenDigit || digits > 15 || fractionDigits >= POWERSOFTEN.length) {
+      return Double.parseDouble(getString(field));
+    }
+    double value = mantissa / POWERSOFTEN[fractionDigits];
+    return negative ? -value : value;
+  }
+}
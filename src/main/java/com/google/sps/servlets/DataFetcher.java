@@ -0,0 +1,164 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Downloads upstream data sets and keeps the last good copy of each in a
+ * local file cache. Requests are conditional on the cached copy, so an
+ * unchanged source only costs a 304, and a failed request falls back to
+ * the copy on disk
+ */
+final class DataFetcher {
+  private static final int CONNECTTIMEOUTMILLIS = 10000;
+  private static final int READTIMEOUTMILLIS = 60000;
+  private final Path cacheDirectory;
+
+  /**
+   * Caches under the temp directory, the only writable location on App Engine.
+   * There it is in memory and private to the instance, so a new instance
+   * starts with an empty cache and downloads everything again
+   */
+  DataFetcher() {
+    this(Paths.get(System.getProperty("java.io.tmpdir"), "videomap-cache"));
+  }
+
+  DataFetcher(Path cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  /**
+   * @return directory the downloads are cached in
+   */
+  Path getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  /**
+   * @return file holding the latest body of the url, or null if it could
+   *         not be downloaded and was never cached
+   */
+  Path fetch(String url) {
+    String key = cacheKey(url);
+    Path body = cacheDirectory.resolve(key + ".body");
+    Path validators = cacheDirectory.resolve(key + ".properties");
+    boolean cached = Files.exists(body) && Files.exists(validators);
+
+    HttpURLConnection connection = null;
+    try {
+      Properties properties = new Properties();
+      connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setRequestMethod("GET");
+      connection.setConnectTimeout(CONNECTTIMEOUTMILLIS);
+      connection.setReadTimeout(READTIMEOUTMILLIS);
+      if (cached) {
+        try (InputStream in = Files.newInputStream(validators)) {
+          properties.load(in);
+        }
+        if (properties.getProperty("etag") != null) {
+          connection.setRequestProperty("If-None-Match", properties.getProperty("etag"));
+        }
+        if (properties.getProperty("lastModified") != null) {
+          connection.setRequestProperty(
+              "If-Modified-Since", properties.getProperty("lastModified"));
+        }
+      }
+
+      int responseCode = connection.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached) {
+        return body;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        System.out.println("Unable to fetch " + url + ": " + responseCode);
+        return cached ? body : null;
+      }
+
+      // Write to a temporary file first so the cached copy is never half written
+      Files.createDirectories(cacheDirectory);
+      Path download = Files.createTempFile(cacheDirectory, key, ".download");
+      try (InputStream in = connection.getInputStream()) {
+        Files.copy(in, download, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(download, body, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(download);
+      }
+      saveValidators(connection, validators);
+      return body;
+    } catch (IOException e) {
+      System.out.println("Unable to open connection");
+      return cached ? body : null;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Deletes the cached copy of the url, for bodies that will not be needed again
+   */
+  void discard(String url) throws IOException {
+    String key = cacheKey(url);
+    Files.deleteIfExists(cacheDirectory.resolve(key + ".body"));
+    Files.deleteIfExists(cacheDirectory.resolve(key + ".properties"));
+  }
+
+  private void saveValidators(HttpURLConnection connection, Path validators) throws IOException {
+    Properties properties = new Properties();
+    String etag = connection.getHeaderField("ETag");
+    String lastModified = connection.getHeaderField("Last-Modified");
+    if (etag != null) {
+      properties.setProperty("etag", etag);
+    }
+    if (lastModified != null) {
+      properties.setProperty("lastModified", lastModified);
+    }
+    try (OutputStream out = Files.newOutputStream(validators)) {
+      properties.store(out, null);
+    }
+  }
+
+  /**
+   * @return file name safe key that is unique to the url
+   */
+  private static String cacheKey(String url) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder();
+      for (int i = 0; i < 16; ++i) {
+        key.append(String.format("%02x", hash[i]));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Response body encoded once, in plain and gzip form, with a strong
+ * ETag for each, so serving it only costs writing the bytes and serving
+ * it again to a client that has it costs a 304
+ */
+final class EncodedPayload {
+  private final byte[] identity;
+  private final byte[] gzip;
+  private final String identityTag;
+  private final String gzipTag;
+
+  EncodedPayload(String body) {
+    identity = body.getBytes(StandardCharsets.UTF_8);
+    gzip = compress(identity);
+    // Each encoding is a different representation, so it needs its own tag
+    String hash = hash(identity);
+    identityTag = "\"" + hash + "\"";
+    gzipTag = "\"" + hash + "-gzip\"";
+  }
+
+  /**
+   * Writes the body, compressed if the client accepts gzip, or only
+   * a 304 status if the client already has this version
+   */
+  void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    boolean compressed = acceptsGzip(request.getHeader("Accept-Encoding"));
+    String tag = compressed ? gzipTag : identityTag;
+    response.setHeader("Vary", "Accept-Encoding");
+    response.setHeader("ETag", tag);
+    if (matches(request.getHeader("If-None-Match"), tag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    byte[] body = identity;
+    if (compressed) {
+      response.setHeader("Content-Encoding", "gzip");
+      body = gzip;
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  /**
+   * @return the body as text
+   */
+  String getText() {
+    return new String(identity, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return true if the If-None-Match header lists the tag. Weak
+   *         validators match too, as the comparison for this header is weak
+   */
+  static boolean matches(String ifNoneMatch, String tag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the Accept-Encoding header allows a gzip response
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim();
+      if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+        continue;
+      }
+      // A quality of 0 means the coding is explicitly refused
+      for (int i = 1; i < parts.length; ++i) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            return Double.parseDouble(param.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return hex of the first 16 bytes of the SHA-256 of the data
+   */
+  private static String hash(byte[] data) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < 16; ++i) {
+        hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+        hex.append(Character.forDigit(digest[i] & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] compress(byte[] data) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(bytes)) {
+      gzipStream.write(data);
+    } catch (IOException e) {
+      // Writes to memory do not fail
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Arrays;
+
+/**
+ * Answers bounding box queries over a fixed set of coordinates by
+ * bucketing them into a lat/lng grid, so a query only looks at the
+ * cells it overlaps. Locations are identified by their position in the
+ * arrays the index was built from. Built once, then safe to share
+ * between request threads
+ */
+final class GridIndex {
+  private final double cellDegrees;
+  private final int rows;
+  private final int columns;
+  // Locations of cell c are items[cellStarts[c]] to items[cellStarts[c + 1] - 1]
+  private final int[] cellStarts;
+  private final int[] items;
+  // Coordinates in the same order as items, so a cell is scanned sequentially
+  private final double[] lats;
+  private final double[] lngs;
+
+  GridIndex(double[] lats, double[] lngs, double cellDegrees) {
+    this.cellDegrees = cellDegrees;
+    rows = (int) Math.ceil(180 / cellDegrees);
+    columns = (int) Math.ceil(360 / cellDegrees);
+    int size = lats.length;
+
+    // Count the locations in each cell, then lay the cells out back to back
+    int[] cells = new int[size];
+    cellStarts = new int[rows * columns + 1];
+    for (int i = 0; i < size; ++i) {
+      cells[i] = row(lats[i]) * columns + column(lngs[i]);
+      ++cellStarts[cells[i] + 1];
+    }
+    for (int cell = 0; cell < rows * columns; ++cell) {
+      cellStarts[cell + 1] += cellStarts[cell];
+    }
+    int[] next = Arrays.copyOf(cellStarts, rows * columns);
+    items = new int[size];
+    this.lats = new double[size];
+    this.lngs = new double[size];
+    for (int i = 0; i < size; ++i) {
+      int slot = next[cells[i]]++;
+      items[slot] = i;
+      this.lats[slot] = lats[i];
+      this.lngs[slot] = lngs[i];
+    }
+  }
+
+  /**
+   * @return number of indexed locations
+   */
+  int size() {
+    return items.length;
+  }
+
+  /**
+   * Finds locations strictly inside a bounding box. A box whose west edge
+   * is east of its east edge crosses the antimeridian
+   *
+   * @param limit most locations to return
+   * @return indices of the matching locations, in grid order
+   */
+  int[] query(double south, double west, double north, double east, int limit) {
+    if (!(south < north) || limit <= 0 || size() == 0) {
+      return new int[0];
+    }
+    int[] results = new int[Math.min(limit, size())];
+    boolean wraps = false;
+    if (east - west >= 360) {
+      west = -181;
+      east = 181;
+    } else {
+      west = normalize(west);
+      east = normalize(east);
+      wraps = west > east;
+    }
+
+    int count = 0;
+    int westColumn = column(west);
+    int eastColumn = column(east);
+    for (int row = row(south); row <= row(north); ++row) {
+      int column = wraps ? 0 : westColumn;
+      while (column <= (wraps ? columns - 1 : eastColumn)) {
+        for (int slot = cellStarts[row * columns + column];
+             slot < cellStarts[row * columns + column + 1]; ++slot) {
+          double lng = lngs[slot];
+          if (lats[slot] > south && lats[slot] < north
+              && (wraps ? lng > west || lng < east : lng > west && lng < east)) {
+            results[count++] = items[slot];
+            if (count == results.length) {
+              return results;
+            }
+          }
+        }
+        // When wrapping, skip the columns between the two halves of the box
+        column = wraps && column == eastColumn && westColumn > eastColumn ? westColumn : column + 1;
+      }
+    }
+    return Arrays.copyOf(results, count);
+  }
+
+  /**
+   * @return longitude shifted into [-180, 180)
+   */
+  private static double normalize(double lng) {
+    return lng - 360 * Math.floor((lng + 180) / 360);
+  }
+
+  private int row(double lat) {
+    return clamp((int) Math.floor((lat + 90) / cellDegrees), rows);
+  }
+
+  private int column(double lng) {
+    return clamp((int) Math.floor((lng + 180) / cellDegrees), columns);
+  }
+
+  private static int clamp(int cell, int cells) {
+    return Math.min(Math.max(cell, 0), cells - 1);
+  }
+}
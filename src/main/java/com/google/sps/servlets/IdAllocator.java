@@ -0,0 +1,70 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.KeyRange;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out datastore ids for a kind from blocks reserved with
+ * allocateIds, so only one id in every block costs a datastore call.
+ * Ids left in a block when the instance goes away are never used
+ */
+final class IdAllocator {
+  private final DatastoreService datastore;
+  private final String kind;
+  private final long blockSize;
+  private volatile Block block = new Block(0, 0);
+
+  IdAllocator(DatastoreService datastore, String kind, long blockSize) {
+    this.datastore = datastore;
+    this.kind = kind;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @return an id no other caller or instance will get
+   */
+  long next() {
+    while (true) {
+      Block current = block;
+      long id = current.next.getAndIncrement();
+      if (id < current.end) {
+        return id;
+      }
+      // Only the first thread to find the block empty reserves the next one
+      synchronized (this) {
+        if (block == current) {
+          KeyRange range = datastore.allocateIds(kind, blockSize);
+          block = new Block(range.getStart().getId(), range.getEnd().getId() + 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ids from next up to, but not including, end
+   */
+  private static final class Block {
+    private final AtomicLong next;
+    private final long end;
+
+    private Block(long start, long end) {
+      next = new AtomicLong(start);
+      this.end = end;
+    }
+  }
+}
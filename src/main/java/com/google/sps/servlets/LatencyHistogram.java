@@ -0,0 +1,114 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds with buckets that keep about
+ * 6% relative precision, like HdrHistogram with one significant digit.
+ * Values below 16 get a bucket each; above that every power of two is
+ * split into 16 buckets. Counts are striped so recording from many
+ * threads does not contend
+ */
+final class LatencyHistogram {
+  private static final int SUBBUCKETBITS = 4;
+  private static final int SUBBUCKETS = 1 << SUBBUCKETBITS;
+  // Largest power of two tracked, about 19 hours in microseconds
+  private static final int MAXEXPONENT = 35;
+  private static final long MAXMICROS = (1L << (MAXEXPONENT + 1)) - 1;
+  private static final int BUCKETS = (MAXEXPONENT - SUBBUCKETBITS + 2) * SUBBUCKETS;
+
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+  private final LongAdder sumMicros = new LongAdder();
+  private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+  LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; ++i) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  void recordNanos(long nanos) {
+    long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAXMICROS);
+    counts[bucket(micros)].increment();
+    sumMicros.add(micros);
+    maxMicros.accumulate(micros);
+  }
+
+  /**
+   * @return number of recorded values
+   */
+  long count() {
+    long count = 0;
+    for (LongAdder bucketCount : counts) {
+      count += bucketCount.sum();
+    }
+    return count;
+  }
+
+  long sumMicros() {
+    return sumMicros.sum();
+  }
+
+  long maxMicros() {
+    return maxMicros.get();
+  }
+
+  /**
+   * @param quantile between 0 and 1, e.g. 0.99
+   * @return highest value in the bucket holding the quantile, or 0 if nothing was recorded
+   */
+  long quantileMicros(double quantile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      snapshot[i] = counts[i].sum();
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestInBucket(i), maxMicros());
+      }
+    }
+    return maxMicros();
+  }
+
+  static int bucket(long micros) {
+    if (micros < SUBBUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUBBUCKETBITS)) & (SUBBUCKETS - 1);
+    return (exponent - SUBBUCKETBITS + 1) * SUBBUCKETS + subBucket;
+  }
+
+  static long highestInBucket(int bucket) {
+    if (bucket < SUBBUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUBBUCKETS - 1;
+    long lowest = (long) (SUBBUCKETS + bucket % SUBBUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+/**
+ * Converts between datastore ids and the ids used in short links.
+ * Short links write ids in base62, but older links wrote them in
+ * decimal, so an id made only of digits is read as decimal. Ids whose
+ * base62 form is only digits are therefore never used for new links
+ */
+final class LinkIds {
+  private static final String DIGITS =
+      "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+  private LinkIds() {}
+
+  /**
+   * @return the id in base62
+   */
+  static String encode(long id) {
+    if (id == 0) {
+      return "0";
+    }
+    char[] chars = new char[11];
+    int start = chars.length;
+    for (long rest = id; rest > 0; rest /= DIGITS.length()) {
+      chars[--start] = DIGITS.charAt((int) (rest % DIGITS.length()));
+    }
+    return new String(chars, start, chars.length - start);
+  }
+
+  /**
+   * @return true if the id can be used for a new link
+   */
+  static boolean isUsable(long id) {
+    return id > 0 && !isDecimal(encode(id));
+  }
+
+  /**
+   * @return the datastore id of a link id in either format
+   * @throws NumberFormatException if the link id is not valid
+   */
+  static long parse(String linkId) {
+    if (isDecimal(linkId)) {
+      return Long.parseLong(linkId);
+    }
+    if (linkId.isEmpty()) {
+      throw new NumberFormatException("Empty link id");
+    }
+    long id = 0;
+    for (int i = 0; i < linkId.length(); ++i) {
+      int digit = DIGITS.indexOf(linkId.charAt(i));
+      if (digit < 0) {
+        throw new NumberFormatException("Invalid link id: " + linkId);
+      }
+      try {
+        id = Math.addExact(Math.multiplyExact(id, DIGITS.length()), digit);
+      } catch (ArithmeticException e) {
+        throw new NumberFormatException("Link id too large: " + linkId);
+      }
+    }
+    return id;
+  }
+
+  private static boolean isDecimal(String text) {
+    if (text.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); ++i) {
+      if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -35,23 +35,56 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet("/link")
 public class LinkServlet extends HttpServlet {
+  // Links cached in memory, and how long an unknown id is remembered. Any
+  // instance may store an unknown id the next moment, so it is only remembered briefly
+  private static final int CACHESIZE = 10000;
+  private static final long UNKNOWNIDMILLIS = 2000;
   private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final ReadThroughCache<Long, String> urls =
+      new ReadThroughCache<Long, String>(CACHESIZE, UNKNOWNIDMILLIS, this::loadUrl);
 
   /**
-   * Sends redirect to url from datastore if it exists
+   * Publishes the link cache's counters with the other metrics
+   */
+  @Override
+  public void init() {
+    Metrics.registerCache("link", urls);
+  }
+
+  /**
+   * Sends redirect to url from datastore if it exists. Ids may be base62 or,
+   * for older links, decimal. Links never change once stored, so they are
+   * served from memory after the first lookup
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setCharacterEncoding(Constants.ENCODING);
     response.setContentType(Constants.LINKCTYPE);
     String id = getRequestParameterOrDefault(request, "id", "1");
+    String url;
+    try {
+      url = urls.get(LinkIds.parse(id));
+    } catch (NumberFormatException e) {
+      url = null;
+    }
+    if (url == null) {
+      response.getWriter().println("Invalid Id");
+      return;
+    }
+    response.getWriter().println(url);
+    response.sendRedirect(url);
+  }
+
+  /**
+   * @return the url stored under the id, or null if there is none
+   */
+  private String loadUrl(long id) {
     try {
-      Key urlKey = KeyFactory.createKey("url", Long.parseLong(id));
+      Key urlKey = KeyFactory.createKey("url", id);
       Entity urlEntity = datastore.get(urlKey);
-      response.getWriter().println(urlEntity.getProperty("url"));
-      response.sendRedirect((String) urlEntity.getProperty("url"));
+      return (String) urlEntity.getProperty("url");
     } catch (EntityNotFoundException e) {
-      response.getWriter().println("Invalid Id");
+      return null;
     }
   }
 
@@ -16,8 +16,6 @@ package com.google.sps.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Key;
 import com.google.sps.servlets.Constants;
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -33,10 +31,17 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet("/linkshorten")
 public class LinkShortenServlet extends HttpServlet {
+  // Recently shortened urls remembered in memory
+  private static final int INDEXSIZE = 10000;
+  // Ids reserved from datastore at a time
+  private static final long IDBLOCKSIZE = 100;
   private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final LinkWriter links =
+      new LinkWriter(datastore, new IdAllocator(datastore, "url", IDBLOCKSIZE), INDEXSIZE);
 
   /**
-   * Saves url in datastore and returns key
+   * Saves url in datastore and returns its key in base62. A url that
+   * was shortened before returns the key it already has
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -48,11 +53,7 @@ public class LinkShortenServlet extends HttpServlet {
       return;
     }
     System.out.println("Url: " + url);
-    Entity urlEntity = new Entity("url");
-    urlEntity.setProperty("url", url);
-    Key key = urlEntity.getKey();
-    datastore.put(urlEntity);
-    response.getWriter().println(key.getId());
+    response.getWriter().println(LinkIds.encode(links.store(url)));
   }
 
   /**
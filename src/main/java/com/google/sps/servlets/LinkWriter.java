@@ -0,0 +1,188 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stores urls in datastore, at most once each. A url is identified by
+ * the hash of its normalized form, which maps to the id it was stored
+ * under through a "urlhash" entity. A new url and its hash are written
+ * in one cross-group transaction, so neither is ever stored without the
+ * other, and two instances storing the same url agree on one id. Ids come
+ * from the allocator, so no write waits on datastore to assign them
+ */
+final class LinkWriter {
+  // Attempts at a transaction that keeps conflicting with another writer
+  private static final int ATTEMPTS = 3;
+  private final DatastoreService datastore;
+  private final IdAllocator ids;
+  private final int indexSize;
+  // Ids of recently stored or looked up urls by hash, least recently used first
+  private final LinkedHashMap<String, Long> index;
+
+  LinkWriter(DatastoreService datastore, IdAllocator ids, int indexSize) {
+    this.datastore = datastore;
+    this.ids = ids;
+    this.indexSize = indexSize;
+    index = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > LinkWriter.this.indexSize;
+      }
+    };
+  }
+
+  /**
+   * Stores the url unless an equivalent one already is
+   *
+   * @return id the url is stored under
+   */
+  long store(String url) {
+    String hash = hash(normalize(url));
+    synchronized (index) {
+      Long id = index.get(hash);
+      if (id != null) {
+        return id;
+      }
+    }
+    long id = storeOnce(url, hash);
+    synchronized (index) {
+      index.put(hash, id);
+    }
+    return id;
+  }
+
+  /**
+   * Looks up the hash and, if it is new, writes the url and the hash
+   * in the same transaction. A conflict means another writer got there
+   * first, so the next attempt finds its id
+   */
+  private long storeOnce(String url, String hash) {
+    Key hashKey = KeyFactory.createKey("urlhash", hash);
+    for (int attempt = 1;; ++attempt) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        try {
+          return (Long) datastore.get(transaction, hashKey).getProperty("id");
+        } catch (EntityNotFoundException e) {
+          // New url
+        }
+        long id = nextId();
+        Entity urlEntity = new Entity("url", id);
+        urlEntity.setProperty("url", url);
+        Entity hashEntity = new Entity(hashKey);
+        hashEntity.setUnindexedProperty("id", id);
+        datastore.put(transaction, Arrays.asList(urlEntity, hashEntity));
+        transaction.commit();
+        return id;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the next id that can be written as a short link
+   */
+  private long nextId() {
+    long id = ids.next();
+    while (!LinkIds.isUsable(id)) {
+      id = ids.next();
+    }
+    return id;
+  }
+
+  /**
+   * Lowercases the scheme and host, which are case insensitive,
+   * and gives an empty path its implied "/". User info, which may be
+   * case sensitive, and the port are kept as they are
+   */
+  static String normalize(String url) {
+    String trimmed = url.trim();
+    try {
+      URI uri = new URI(trimmed);
+      if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+        return trimmed;
+      }
+      StringBuilder normalized = new StringBuilder();
+      normalized.append(uri.getScheme().toLowerCase(Locale.ROOT)).append("://");
+      if (uri.getHost() == null) {
+        // Authorities that are not a server, e.g. with an invalid host, are kept whole
+        normalized.append(uri.getRawAuthority());
+      } else {
+        if (uri.getRawUserInfo() != null) {
+          normalized.append(uri.getRawUserInfo()).append('@');
+        }
+        normalized.append(uri.getHost().toLowerCase(Locale.ROOT));
+        if (uri.getPort() != -1) {
+          normalized.append(':').append(uri.getPort());
+        }
+      }
+      String path = uri.getRawPath();
+      normalized.append(path == null || path.isEmpty() ? "/" : path);
+      if (uri.getRawQuery() != null) {
+        normalized.append('?').append(uri.getRawQuery());
+      }
+      if (uri.getRawFragment() != null) {
+        normalized.append('#').append(uri.getRawFragment());
+      }
+      return normalized.toString();
+    } catch (URISyntaxException e) {
+      return trimmed;
+    }
+  }
+
+  /**
+   * @return hex of the SHA-256 of the text
+   */
+  private static String hash(String text) {
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+        hex.append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
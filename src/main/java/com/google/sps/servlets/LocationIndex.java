@@ -0,0 +1,210 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+/**
+ * Answers nearest-location queries over a fixed set of coordinates.
+ * Locations are identified by their position in the arrays the index
+ * was built from. Built once, then safe to share between request threads
+ */
+final class LocationIndex {
+  /**
+   * Distance used to decide which location is closest
+   */
+  enum Metric {
+    // |dlat| + |dlng| in degrees, the approximation the front end also uses
+    MANHATTAN,
+    // Distance along the surface of the earth
+    GREAT_CIRCLE
+  }
+
+  private final KdTree manhattanTree;
+  private final KdTree greatCircleTree;
+  private final boolean[] preferred;
+
+  /**
+   * Builds the index. When two locations are equally close, a preferred
+   * location wins over one that is not, then the lower index wins
+   */
+  LocationIndex(double[] lats, double[] lngs, boolean[] preferred) {
+    int size = lats.length;
+    this.preferred = preferred.clone();
+    manhattanTree = new KdTree(new double[][] {lats.clone(), lngs.clone()}, false);
+
+    // Chord length between unit vectors grows with great-circle distance,
+    // so the closest vector is also the closest point on the sphere
+    double[][] vectors = new double[3][size];
+    for (int i = 0; i < size; ++i) {
+      double lat = Math.toRadians(lats[i]);
+      double lng = Math.toRadians(lngs[i]);
+      vectors[0][i] = Math.cos(lat) * Math.cos(lng);
+      vectors[1][i] = Math.cos(lat) * Math.sin(lng);
+      vectors[2][i] = Math.sin(lat);
+    }
+    greatCircleTree = new KdTree(vectors, true);
+  }
+
+  /**
+   * @return number of indexed locations
+   */
+  int size() {
+    return preferred.length;
+  }
+
+  /**
+   * @return index of the location closest to the coordinates, or -1 if the index is empty
+   */
+  int nearest(double lat, double lng, Metric metric) {
+    if (metric == Metric.GREAT_CIRCLE) {
+      double latRad = Math.toRadians(lat);
+      double lngRad = Math.toRadians(lng);
+      return greatCircleTree.nearest(new double[] {Math.cos(latRad) * Math.cos(lngRad),
+          Math.cos(latRad) * Math.sin(lngRad), Math.sin(latRad)});
+    }
+    return manhattanTree.nearest(new double[] {lat, lng});
+  }
+
+  /**
+   * Implicit k-d tree: the median of every range of {@code order} is the
+   * node splitting that range on axis depth % k
+   */
+  private final class KdTree {
+    private final double[][] coords;
+    private final boolean squared;
+    private final int[] order;
+
+    /**
+     * @param coords one array of values per axis
+     * @param squared use squared euclidean distance instead of manhattan distance
+     */
+    KdTree(double[][] coords, boolean squared) {
+      this.coords = coords;
+      this.squared = squared;
+      int size = coords[0].length;
+      order = new int[size];
+      for (int i = 0; i < size; ++i) {
+        order[i] = i;
+      }
+      build(0, size, 0);
+    }
+
+    private void build(int lo, int hi, int depth) {
+      if (hi - lo <= 1) {
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      select(coords[depth % coords.length], lo, hi - 1, mid);
+      build(lo, mid, depth + 1);
+      build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Partially sorts order[lo..hi] so order[k] holds the median on the axis
+     */
+    private void select(double[] axis, int lo, int hi, int k) {
+      while (hi > lo) {
+        double pivot = axis[order[(lo + hi) >>> 1]];
+        int i = lo;
+        int j = hi;
+        while (i <= j) {
+          while (axis[order[i]] < pivot) {
+            ++i;
+          }
+          while (axis[order[j]] > pivot) {
+            --j;
+          }
+          if (i <= j) {
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+            ++i;
+            --j;
+          }
+        }
+        if (k <= j) {
+          hi = j;
+        } else if (k >= i) {
+          lo = i;
+        } else {
+          return;
+        }
+      }
+    }
+
+    int nearest(double[] query) {
+      Search search = new Search(query);
+      search.visit(0, order.length, 0);
+      return search.best;
+    }
+
+    /**
+     * State of a single nearest-neighbour query
+     */
+    private final class Search {
+      private final double[] query;
+      private int best = -1;
+      private double bestDistance = Double.POSITIVE_INFINITY;
+
+      Search(double[] query) {
+        this.query = query;
+      }
+
+      void visit(int lo, int hi, int depth) {
+        if (lo >= hi) {
+          return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int id = order[mid];
+        consider(id);
+
+        int axis = depth % coords.length;
+        double diff = query[axis] - coords[axis][id];
+        double planeDistance = squared ? diff * diff : Math.abs(diff);
+        // Search the side of the split containing the query first
+        if (diff < 0) {
+          visit(lo, mid, depth + 1);
+          // Equal distances are still explored so the tie-break is honoured
+          if (planeDistance <= bestDistance) {
+            visit(mid + 1, hi, depth + 1);
+          }
+        } else {
+          visit(mid + 1, hi, depth + 1);
+          if (planeDistance <= bestDistance) {
+            visit(lo, mid, depth + 1);
+          }
+        }
+      }
+
+      private void consider(int id) {
+        double distance = 0;
+        for (int axis = 0; axis < coords.length; ++axis) {
+          double diff = query[axis] - coords[axis][id];
+          distance += squared ? diff * diff : Math.abs(diff);
+        }
+        if (distance < bestDistance || (distance == bestDistance && winsTie(id, best))) {
+          best = id;
+          bestDistance = distance;
+        }
+      }
+    }
+  }
+
+  private boolean winsTie(int id, int current) {
+    if (preferred[id] != preferred[current]) {
+      return preferred[id];
+    }
+    return id < current;
+  }
+}
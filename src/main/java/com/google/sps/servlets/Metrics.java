@@ -0,0 +1,228 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide request, data load and cache metrics. Requests are recorded per
+ * endpoint by MetricsFilter; data loads record how long each phase
+ * (download, parse, index, serialize) of building a data set took; caches
+ * are registered once and their counters read whenever metrics are served
+ */
+final class Metrics {
+  private static final Map<String, Endpoint> ENDPOINTS = new ConcurrentHashMap<String, Endpoint>();
+  private static final Map<String, Phase> PHASES = new ConcurrentHashMap<String, Phase>();
+  private static final Map<String, ReadThroughCache<?, ?>> CACHES =
+      new ConcurrentHashMap<String, ReadThroughCache<?, ?>>();
+
+  private Metrics() {}
+
+  /**
+   * Records one request to an endpoint
+   */
+  static void recordRequest(String endpoint, long nanos, boolean error) {
+    Endpoint metrics = ENDPOINTS.computeIfAbsent(endpoint, name -> new Endpoint());
+    metrics.requests.increment();
+    if (error) {
+      metrics.errors.increment();
+    }
+    metrics.latency.recordNanos(nanos);
+  }
+
+  /**
+   * Records a phase of loading a data set that started at startNanos and ends now
+   *
+   * @return the current System.nanoTime(), where the next phase starts
+   */
+  static long recordPhase(String dataset, String phase, long startNanos) {
+    long now = System.nanoTime();
+    addPhase(dataset, phase, now - startNanos);
+    return now;
+  }
+
+  /**
+   * Records a phase of loading a data set that took the given time
+   */
+  static void addPhase(String dataset, String phase, long nanos) {
+    Phase metrics = PHASES.computeIfAbsent(dataset + "/" + phase, name -> new Phase());
+    synchronized (metrics) {
+      metrics.count++;
+      metrics.totalNanos += nanos;
+      metrics.lastNanos = nanos;
+    }
+  }
+
+  /**
+   * Publishes the hit, miss and load counts of a cache under its name,
+   * replacing any cache registered under the same name
+   */
+  static void registerCache(String name, ReadThroughCache<?, ?> cache) {
+    CACHES.put(name, cache);
+  }
+
+  /**
+   * @return every metric as nested maps, ready to be written as JSON
+   */
+  static Map<String, Object> snapshot() {
+    Map<String, Object> endpoints = new TreeMap<String, Object>();
+    for (Map.Entry<String, Endpoint> entry : ENDPOINTS.entrySet()) {
+      LatencyHistogram latency = entry.getValue().latency;
+      Map<String, Object> values = new LinkedHashMap<String, Object>();
+      values.put("requests", entry.getValue().requests.sum());
+      values.put("errors", entry.getValue().errors.sum());
+      values.put("p50Millis", latency.quantileMicros(0.5) / 1000.0);
+      values.put("p99Millis", latency.quantileMicros(0.99) / 1000.0);
+      values.put("p999Millis", latency.quantileMicros(0.999) / 1000.0);
+      values.put("maxMillis", latency.maxMicros() / 1000.0);
+      endpoints.put(entry.getKey(), values);
+    }
+
+    Map<String, Object> phases = new TreeMap<String, Object>();
+    for (Map.Entry<String, Phase> entry : PHASES.entrySet()) {
+      Map<String, Object> values = new LinkedHashMap<String, Object>();
+      synchronized (entry.getValue()) {
+        values.put("count", entry.getValue().count);
+        values.put("lastMillis", entry.getValue().lastNanos / 1e6);
+        values.put("totalMillis", entry.getValue().totalNanos / 1e6);
+      }
+      phases.put(entry.getKey(), values);
+    }
+
+    Map<String, Object> caches = new TreeMap<String, Object>();
+    for (Map.Entry<String, ReadThroughCache<?, ?>> entry : CACHES.entrySet()) {
+      Map<String, Object> values = new LinkedHashMap<String, Object>();
+      values.put("hits", entry.getValue().getHitCount());
+      values.put("misses", entry.getValue().getMissCount());
+      values.put("loads", entry.getValue().getLoadCount());
+      values.put("size", entry.getValue().size());
+      caches.put(entry.getKey(), values);
+    }
+
+    Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("endpoints", endpoints);
+    snapshot.put("phases", phases);
+    snapshot.put("caches", caches);
+    return snapshot;
+  }
+
+  /**
+   * @return every metric in the Prometheus text exposition format
+   */
+  static String prometheus() {
+    StringBuilder text = new StringBuilder();
+    Map<String, Endpoint> endpoints = new TreeMap<String, Endpoint>(ENDPOINTS);
+    text.append("# TYPE videomap_requests_total counter\n");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      line(text, "videomap_requests_total", endpointLabel(entry.getKey()),
+          entry.getValue().requests.sum());
+    }
+    text.append("# TYPE videomap_request_errors_total counter\n");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      line(text, "videomap_request_errors_total", endpointLabel(entry.getKey()),
+          entry.getValue().errors.sum());
+    }
+    text.append("# TYPE videomap_request_duration_seconds summary\n");
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      String label = endpointLabel(entry.getKey());
+      LatencyHistogram latency = entry.getValue().latency;
+      for (String quantile : new String[] {"0.5", "0.99", "0.999"}) {
+        line(text, "videomap_request_duration_seconds", label + ",quantile=\"" + quantile + "\"",
+            latency.quantileMicros(Double.parseDouble(quantile)) / 1e6);
+      }
+      line(text, "videomap_request_duration_seconds_sum", label, latency.sumMicros() / 1e6);
+      line(text, "videomap_request_duration_seconds_count", label, latency.count());
+    }
+
+    Map<String, Phase> phases = new TreeMap<String, Phase>(PHASES);
+    text.append("# TYPE videomap_load_phase_last_seconds gauge\n");
+    StringBuilder totals = new StringBuilder("# TYPE videomap_load_phase_seconds_total counter\n");
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      String[] names = entry.getKey().split("/", 2);
+      String label = "dataset=\"" + escape(names[0]) + "\",phase=\"" + escape(names[1]) + "\"";
+      synchronized (entry.getValue()) {
+        line(text, "videomap_load_phase_last_seconds", label, entry.getValue().lastNanos / 1e9);
+        line(totals, "videomap_load_phase_seconds_total", label, entry.getValue().totalNanos / 1e9);
+      }
+    }
+    text.append(totals);
+
+    Map<String, ReadThroughCache<?, ?>> caches =
+        new TreeMap<String, ReadThroughCache<?, ?>>(CACHES);
+    text.append("# TYPE videomap_cache_hits_total counter\n");
+    for (Map.Entry<String, ReadThroughCache<?, ?>> entry : caches.entrySet()) {
+      line(text, "videomap_cache_hits_total", cacheLabel(entry.getKey()),
+          entry.getValue().getHitCount());
+    }
+    text.append("# TYPE videomap_cache_misses_total counter\n");
+    for (Map.Entry<String, ReadThroughCache<?, ?>> entry : caches.entrySet()) {
+      line(text, "videomap_cache_misses_total", cacheLabel(entry.getKey()),
+          entry.getValue().getMissCount());
+    }
+    text.append("# TYPE videomap_cache_loads_total counter\n");
+    for (Map.Entry<String, ReadThroughCache<?, ?>> entry : caches.entrySet()) {
+      line(text, "videomap_cache_loads_total", cacheLabel(entry.getKey()),
+          entry.getValue().getLoadCount());
+    }
+    return text.toString();
+  }
+
+  private static String endpointLabel(String endpoint) {
+    return "endpoint=\"" + escape(endpoint) + "\"";
+  }
+
+  private static String cacheLabel(String cache) {
+    return "cache=\"" + escape(cache) + "\"";
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static void line(StringBuilder text, String name, String labels, double value) {
+    text.append(name).append('{').append(labels).append("} ");
+    text.append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+  }
+
+  private static void line(StringBuilder text, String name, String labels, long value) {
+    text.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  /**
+   * Forgets every metric, for tests
+   */
+  static void reset() {
+    ENDPOINTS.clear();
+    PHASES.clear();
+    CACHES.clear();
+  }
+
+  private static final class Endpoint {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+  }
+
+  private static final class Phase {
+    private long count = 0;
+    private long totalNanos = 0;
+    private long lastNanos = 0;
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the count, errors and latency of requests to each data endpoint.
+ * A request is an error if it throws or responds with a 5xx status
+ */
+@WebFilter(urlPatterns = {"/report", "/timereport", "/testcenters", "/link", "/linkshorten"})
+public class MetricsFilter implements Filter {
+  @Override
+  public void init(FilterConfig config) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    long start = System.nanoTime();
+    boolean error = true;
+    try {
+      chain.doFilter(request, response);
+      error = ((HttpServletResponse) response).getStatus() >= 500;
+    } finally {
+      Metrics.recordRequest(
+          ((HttpServletRequest) request).getServletPath(), System.nanoTime() - start, error);
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
@@ -0,0 +1,43 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.GsonBuilder;
+import com.google.sps.servlets.Constants;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns request and data load metrics as JSON,
+ * or in the Prometheus text format with format=prometheus
+ */
+@WebServlet("/admin/metrics")
+public class MetricsServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setCharacterEncoding(Constants.ENCODING);
+    if ("prometheus".equals(request.getParameter("format"))) {
+      response.setContentType("text/plain; version=0.0.4");
+      response.getWriter().print(Metrics.prometheus());
+      return;
+    }
+    response.setContentType(Constants.CASESCTYPE);
+    response.getWriter().println(
+        new GsonBuilder().setPrettyPrinting().create().toJson(Metrics.snapshot()));
+  }
+}
@@ -15,15 +15,25 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.sps.servlets.Constants;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,245 +42,544 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Retrieves historical confirmed case data
  * starting from 1-22-20. Takes coordinates
- * in request and returns closest report
+ * in request and returns closest report.
+ * Pass metric=greatcircle to measure closeness along
+ * the earth's surface instead of by |dlat| + |dlng|.
+ * Pass from and to (yyyy-mm-dd) to limit the dates, step=weekly or
+ * step=monthly to get every week or month back from the last date,
+ * and encoding=delta to get the first count followed by the change
+ * on each date after it, with only the first and last dates, e.g.
+ * {"location": "Italy", "start": "2020-08-01", "end": "2020-08-22",
+ * "step": "weekly", "cases": [247537, 2818, 3486, 4713]}
+ * Pass window=7 to also get the average new cases per day over the 7 days
+ * up to each date, or, with the heatmap, the new cases over the last 7 days.
+ * Pass region instead of coordinates to get cases summed over a state or
+ * province and its country, e.g. region=California, US, over a country,
+ * e.g. region=Italy, or over the world with region=Worldwide.
+ * POST, or repeated lat and lng parameters, look up many coordinates at once
  */
 @WebServlet("/timereport")
 public class OverTimeCasesServlet extends HttpServlet {
-  private Map<LocLatLng, List<Integer>> usTimeReports;
-  private Map<LocLatLng, List<Integer>> globalTimeReports;
-  private List<Integer> worldCases;
-  private List<String> dates;
+  // Rows are parsed in chunks of about this many bytes, in parallel
+  private static final int CHUNKBYTES = 256 * 1024;
+  private final DataFetcher fetcher = new DataFetcher();
+  private RefreshingDataset<TimeReports> timeReports;
   private Integer DAYSINWEEK = 7;
+  // Number of heatmap windows kept encoded
+  private static final int HEATMAPWINDOWS = 8;
+  // Number of location and region responses with options other than the defaults kept encoded
+  private static final int CACHEDSERIES = 4096;
+  // Series whose default responses are encoded by each task when the data loads
+  private static final int ENCODEBATCH = 256;
   private Double UNREACHABLE = 1000.0;
+  // First date of the time series, used if the header has none
+  private static final LocalDate FIRSTDATE = LocalDate.of(2020, 1, 22);
+  // Country the US data set breaks down by county
+  private static final String USCOUNTRY = "US";
+  // Limits on the size of a batch request
+  private static final int MAXBATCHBYTES = 64 * 1024;
+  private static final int MAXBATCHPOINTS = 100;
 
   /**
-   * Builds report hashmaps for US counties and international countires
+   * Starts building report tables for US counties and international countires
+   * and keeps them up to date
    */
   @Override
   public void init() {
-    // Build US hashmap
-    usTimeReports = new HashMap<LocLatLng, List<Integer>>();
-    Scanner usScanner = connectToData("US");
-    fillDataMap(usScanner, usTimeReports, 7, 6, 5, 9);
-
-    // Build international hashmap
-    globalTimeReports = new HashMap<LocLatLng, List<Integer>>();
-    Scanner globalScanner = connectToData("global");
-    fillDataMap(globalScanner, globalTimeReports, 0, 0, 0, 0);
+    timeReports = new RefreshingDataset<TimeReports>("timereport", this::buildTimeReports);
+    timeReports.start();
   }
 
   /**
-   * Returns history of confirmed cases for the location specificed by cooridnates
+   * Serves tables parsed from US and global time series CSVs instead of
+   * the latest data sets, for tests that must not download them
+   */
+  void initFromData(byte[] usData, byte[] globalData) {
+    timeReports = new RefreshingDataset<TimeReports>("timereport", () -> {
+      RegionRollup.Builder usRegions = new RegionRollup.Builder();
+      TimeSeriesTable usParsed = parseUsData(usData, usRegions);
+      RegionRollup.Builder globalRegions = new RegionRollup.Builder(USCOUNTRY);
+      TimeSeriesTable globalParsed = parseGlobalData(globalData, globalRegions);
+      return joinTimeReports(usParsed, usRegions, globalParsed, globalRegions);
+    });
+    timeReports.start();
+  }
+
+  @Override
+  public void destroy() {
+    timeReports.stop();
+  }
+
+  /**
+   * Waits for the first attempt to build the report tables to finish
+   *
+   * @return false if it is still running after the timeout
+   */
+  boolean awaitFirstLoad(long timeout, TimeUnit unit) throws InterruptedException {
+    return timeReports.awaitFirstLoad(timeout, unit);
+  }
+
+  /**
+   * Builds report tables from the latest data sets. Both are downloaded
+   * at the same time, then each is parsed in parallel chunks
+   */
+  private TimeReports buildTimeReports() throws IOException {
+    FutureTask<Path> globalDownload = new FutureTask<Path>(() -> {
+      long start = System.nanoTime();
+      Path data = connectToData("global");
+      Metrics.recordPhase("timereport.global", "download", start);
+      return data;
+    });
+    Thread downloader = new Thread(globalDownload, "timereport-global-download");
+    downloader.setDaemon(true);
+    downloader.start();
+
+    // Build US table
+    long start = System.nanoTime();
+    Path usData = connectToData("US");
+    if (usData == null) {
+      throw new IOException("Unable to open connection");
+    }
+    byte[] usBytes = Files.readAllBytes(usData);
+    start = Metrics.recordPhase("timereport.us", "download", start);
+    RegionRollup.Builder usRegions = new RegionRollup.Builder();
+    TimeSeriesTable usParsed = parseUsData(usBytes, usRegions);
+    Metrics.recordPhase("timereport.us", "parse", start);
+
+    // Build international table
+    Path globalData = getDownload(globalDownload);
+    if (globalData == null) {
+      throw new IOException("Unable to open connection");
+    }
+    start = System.nanoTime();
+    byte[] globalBytes = Files.readAllBytes(globalData);
+    // US counties roll up into states, so the global data set's US row is left out
+    RegionRollup.Builder globalRegions = new RegionRollup.Builder(USCOUNTRY);
+    TimeSeriesTable globalParsed = parseGlobalData(globalBytes, globalRegions);
+    Metrics.recordPhase("timereport.global", "parse", start);
+    return joinTimeReports(usParsed, usRegions, globalParsed, globalRegions);
+  }
+
+  private TimeSeriesTable parseUsData(byte[] data, RegionRollup.Builder regions) {
+    return fillDataMap(data, 5, 8, 11, 6, regions);
+  }
+
+  private TimeSeriesTable parseGlobalData(byte[] data, RegionRollup.Builder regions) {
+    return fillDataMap(data, 0, 2, 4, 0, regions);
+  }
+
+  /**
+   * Rolls up the regions of both parsed data sets and indexes them together
+   */
+  private TimeReports joinTimeReports(TimeSeriesTable usParsed, RegionRollup.Builder usRegions,
+      TimeSeriesTable globalParsed, RegionRollup.Builder globalRegions) {
+    long start = System.nanoTime();
+    // The data sets can be a day apart when one was updated or cached at another time.
+    // Both start on the same day, so the tables keep only the days they share
+    int days = Math.min(usParsed.days(), globalParsed.days());
+    if (usParsed.days() != globalParsed.days()) {
+      System.out.println("Time series track " + usParsed.days() + " and "
+          + globalParsed.days() + " days, keeping " + days);
+    }
+    TimeSeriesTable usTimeReports = usParsed.firstDays(days);
+    TimeSeriesTable globalTimeReports = globalParsed.firstDays(days);
+    RegionRollup regions = globalRegions.addAll(usRegions).build();
+    Metrics.recordPhase("timereport", "rollup", start);
+    return new TimeReports(usTimeReports, globalTimeReports, regions);
+  }
+
+  /**
+   * Waits for a download running on another thread
+   */
+  private Path getDownload(FutureTask<Path> download) throws IOException {
+    try {
+      return download.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downloading", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns history of confirmed cases for the region named in the request or
+   * the location specificed by cooridnates, or 400 if the coordinates are not
+   * finite numbers, or 503 if the data has not loaded yet
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setCharacterEncoding(Constants.ENCODING);
     response.setContentType(Constants.CASESCTYPE);
+    TimeReports reports = timeReports.get();
+    if (reports == null) {
+      timeReports.sendUnavailable(response);
+      return;
+    }
+
+    String region = request.getParameter("region");
+    if (region != null) {
+      int found = reports.regions.find(region);
+      if (found < 0) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "No region named " + region);
+        return;
+      }
+      writeLocationCases(request, response, reports, reports.getRegionSeries(found));
+      return;
+    }
+
+    String[] lats = request.getParameterValues("lat");
+    String[] lngs = request.getParameterValues("lng");
+    if (lats != null && lats.length > 1) {
+      writeBatchFromParameters(request, response, reports, lats, lngs);
+      return;
+    }
 
     // Get coordinates from request
-    double lat = Double.parseDouble(getRequestParameterOrDefault(request, "lat", "0.0"));
-    double lng = Double.parseDouble(getRequestParameterOrDefault(request, "lng", "0.0"));
+    double lat;
+    double lng;
+    try {
+      lat = parseCoordinate(getRequestParameterOrDefault(request, "lat", "0.0"));
+      lng = parseCoordinate(getRequestParameterOrDefault(request, "lng", "0.0"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid lat or lng");
+      return;
+    }
 
     // Coordinates 0 0 are located in the atlantic ocean, will be used to request worldwide cases
+    int series;
     if (lat == 0.0 && lng == 0.0) {
-      LocationCases toReturn = new LocationCases("Worldwide", worldCases, dates);
-      Gson gson = new Gson();
-      String timeReportJson = gson.toJson(toReturn);
-      response.getWriter().println(timeReportJson);
+      series = reports.getRegionSeries(reports.regions.find(RegionRollup.WORLD));
       // Cases in last 7 days (week) for heatmap
     } else if (lat == UNREACHABLE
         && lng == UNREACHABLE) { // Unreachable coordinates used to request heatmap data
-      List<recentReport> recentReports = new ArrayList<recentReport>();
-      // Go through all global reports
-      for (LocLatLng gkey : globalTimeReports.keySet()) {
-        // Do not include US report becuase that will be represented by county
-        if (gkey.location.contains("US")) {
-          continue;
-        }
-        int casesSum = 0;
-        int arrSize = globalTimeReports.get(gkey).size();
-        // Go through case numbers from the last 7 days (week)
-        for (int i = arrSize - DAYSINWEEK; i < arrSize; ++i) {
-          // New cases added will be the current day minus previous day
-          casesSum += (globalTimeReports.get(gkey).get(i) - globalTimeReports.get(gkey).get(i - 1));
-        }
-        // Negative cases can happen when governments remove false positive tests
-        if (casesSum < 0) {
-          casesSum = 0;
-        }
-        recentReports.add(new recentReport(gkey.lat, gkey.lng, casesSum));
+      Integer window = getWindow(request, response, reports, DAYSINWEEK);
+      if (window != null) {
+        reports.heatmaps.get(window).writeTo(request, response);
       }
-      // Go through all US reports
-      for (LocLatLng uskey : usTimeReports.keySet()) {
-        int casesSum = 0;
-        int arrSize = usTimeReports.get(uskey).size();
-        // Go through case numbers from the last 7 days (week)
-        for (int i = arrSize - DAYSINWEEK; i < arrSize; ++i) {
-          // New cases added will be the current day minus previous day
-          casesSum += (usTimeReports.get(uskey).get(i) - usTimeReports.get(uskey).get(i - 1));
-        }
-        // Negative cases can happen when governments remove false positive tests
-        if (casesSum < 0) {
-          casesSum = 0;
-        }
-        recentReports.add(new recentReport(uskey.lat, uskey.lng, casesSum));
-      }
-      Gson gson = new Gson();
-      String recentReportsJson = gson.toJson(recentReports);
-      response.getWriter().println(recentReportsJson);
+      return;
       // Find closest report to coordinates in request
     } else {
-      double minimumDistance = 1000.0;
-      LocLatLng potentialReport = null;
-      boolean usReport = false;
-      // First look through global reports
-      for (LocLatLng key : globalTimeReports.keySet()) {
-        double reportDistance = Math.abs(key.lat - lat) + Math.abs(key.lng - lng);
-        if (reportDistance < minimumDistance) {
-          minimumDistance = reportDistance;
-          potentialReport = key;
-        }
+      series = reports.locationIndex.nearest(lat, lng, getMetric(request));
+    }
+    // Return location name, cases, and dates
+    writeLocationCases(request, response, reports, series);
+  }
+
+  /**
+   * Returns the history of the location closest to each point, for many points
+   * at once. Takes {"points": [{"lat": 32.7, "lng": -117.1}, ...]} and returns
+   * {"series": [{"location": "San Diego", ...}, ...], "points": [0, ...]}, where
+   * each location appears once in series and points gives the position in series
+   * of each point's location. Takes the same parameters as GET for every series
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setCharacterEncoding(Constants.ENCODING);
+    response.setContentType(Constants.CASESCTYPE);
+    TimeReports reports = timeReports.get();
+    if (reports == null) {
+      timeReports.sendUnavailable(response);
+      return;
+    }
+    String body = RequestBodies.read(request, MAXBATCHBYTES);
+    if (body == null) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Too many points");
+      return;
+    }
+
+    double[] lats;
+    double[] lngs;
+    try {
+      BatchRequest batch = new Gson().fromJson(body, BatchRequest.class);
+      if (batch == null || batch.points == null) {
+        throw new IllegalArgumentException("Missing points");
       }
-      // Then look thorugh US reports
-      for (LocLatLng key : usTimeReports.keySet()) {
-        double reportDistance = Math.abs(key.lat - lat) + Math.abs(key.lng - lng);
-        if (reportDistance <= minimumDistance) {
-          usReport = true;
-          minimumDistance = reportDistance;
-          potentialReport = key;
+      lats = new double[batch.points.length];
+      lngs = new double[batch.points.length];
+      for (int i = 0; i < batch.points.length; ++i) {
+        Point point = batch.points[i];
+        if (point == null || point.lat == null || point.lng == null) {
+          throw new IllegalArgumentException("Missing coordinates");
         }
+        lats[i] = point.lat;
+        lngs[i] = point.lng;
       }
+    } catch (JsonParseException | IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+      return;
+    }
+    writeBatch(request, response, reports, lats, lngs);
+  }
 
-      // Return location name, cases, and dates
-      LocationCases toReturn;
-      if (usReport) {
-        toReturn =
-            new LocationCases(potentialReport.location, usTimeReports.get(potentialReport), dates);
-      } else {
-        toReturn = new LocationCases(
-            potentialReport.location, globalTimeReports.get(potentialReport), dates);
+  /**
+   * Answers a GET with repeated lat and lng parameters like a POST with the same points
+   */
+  private void writeBatchFromParameters(HttpServletRequest request, HttpServletResponse response,
+      TimeReports reports, String[] latValues, String[] lngValues) throws IOException {
+    if (lngValues == null || lngValues.length != latValues.length) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Every lat needs a matching lng");
+      return;
+    }
+    double[] lats = new double[latValues.length];
+    double[] lngs = new double[lngValues.length];
+    try {
+      for (int i = 0; i < lats.length; ++i) {
+        lats[i] = parseCoordinate(latValues[i]);
+        lngs[i] = parseCoordinate(lngValues[i]);
       }
-      Gson gson = new Gson();
-      String timeReportJson = gson.toJson(toReturn);
-      response.getWriter().println(timeReportJson);
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+      return;
     }
+    writeBatch(request, response, reports, lats, lngs);
   }
 
   /**
-   * Establish connection to live Coivd-19 data set
+   * Resolves every point against the location index, then writes each
+   * distinct location's series once. Points that are not finite, which the
+   * index has no nearest location for, are answered with 400
    */
-  private Scanner connectToData(String type) {
-    URL covidDataUrl = null;
-    HttpURLConnection connection = null;
-    int responseCode = 0;
-    Scanner scanner = null;
+  private void writeBatch(HttpServletRequest request, HttpServletResponse response,
+      TimeReports reports, double[] lats, double[] lngs) throws IOException {
+    if (lats.length > MAXBATCHPOINTS) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Expected up to " + MAXBATCHPOINTS + " points");
+      return;
+    }
+    for (int i = 0; i < lats.length; ++i) {
+      if (!Double.isFinite(lats[i]) || !Double.isFinite(lngs[i])) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+        return;
+      }
+    }
+    SeriesOptions options = getSeriesOptions(request, response, reports);
+    if (options == null) {
+      return;
+    }
+
+    LocationIndex.Metric metric = getMetric(request);
+    // Position in series of each location that has been seen
+    Map<Integer, Integer> seen = new HashMap<Integer, Integer>();
+    StringBuilder series = new StringBuilder();
+    int[] points = new int[lats.length];
+    for (int i = 0; i < lats.length; ++i) {
+      int closest = reports.locationIndex.nearest(lats[i], lngs[i], metric);
+      Integer position = seen.get(closest);
+      if (position == null) {
+        position = seen.size();
+        seen.put(closest, position);
+        // Each series is the response a single lookup of the location gets
+        series.append(position == 0 ? "" : ",");
+        series.append(reports.getResponse(closest, options).getText());
+      }
+      points[i] = position;
+    }
+    response.getWriter().println(
+        "{\"series\":[" + series + "],\"points\":" + new Gson().toJson(points) + "}");
+  }
 
+  /**
+   * Writes the cases of a location or region on the dates the request asks for,
+   * in the encoding it asks for. Responses without options are encoded when the
+   * data loads; others are encoded the first time they are asked for and kept
+   * until the data is refreshed or they are the least recently used
+   */
+  private void writeLocationCases(HttpServletRequest request, HttpServletResponse response,
+      TimeReports reports, int series) throws IOException {
+    SeriesOptions options = getSeriesOptions(request, response, reports);
+    if (options == null) {
+      return;
+    }
+    reports.getResponse(series, options).writeTo(request, response);
+  }
+
+  /**
+   * @return dates, encoding and window the request asks for, or null after
+   *         answering 400 if any of them is not valid
+   */
+  private SeriesOptions getSeriesOptions(HttpServletRequest request,
+      HttpServletResponse response, TimeReports reports) throws IOException {
+    Integer window = null;
+    if (request.getParameter("window") != null) {
+      window = getWindow(request, response, reports, null);
+      if (window == null) {
+        return null;
+      }
+    }
+
+    SeriesWindow range;
+    try {
+      String from = request.getParameter("from");
+      String to = request.getParameter("to");
+      range = SeriesWindow.of(reports.firstDate, reports.dates.size(),
+          from == null ? null : LocalDate.parse(from), to == null ? null : LocalDate.parse(to),
+          SeriesWindow.Step.parse(getRequestParameterOrDefault(request, "step", "daily")));
+    } catch (DateTimeParseException | IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid from, to or step");
+      return null;
+    }
+    boolean delta = getRequestParameterOrDefault(request, "encoding", "").equals("delta");
+    return new SeriesOptions(range, delta, window);
+  }
+
+  private LocationIndex.Metric getMetric(HttpServletRequest request) {
+    if (getRequestParameterOrDefault(request, "metric", "").equals("greatcircle")) {
+      return LocationIndex.Metric.GREAT_CIRCLE;
+    }
+    return LocationIndex.Metric.MANHATTAN;
+  }
+
+  /**
+   * @return number of days in the window the request asks for, or the default if
+   *         it does not ask, or null after answering 400 if the window is not valid
+   */
+  private Integer getWindow(HttpServletRequest request, HttpServletResponse response,
+      TimeReports reports, Integer defaultWindow) throws IOException {
+    String window = request.getParameter("window");
+    if (window == null) {
+      return defaultWindow;
+    }
     try {
-      String url =
-          "https://raw.githubusercontent.com/CSSEGISandData/COVID-19/master/csse_covid_19_data/csse_covid_19_time_series/time_series_covid19_confirmed_"
-          + type + ".csv";
-      covidDataUrl = new URL(url);
-      connection = (HttpURLConnection) covidDataUrl.openConnection();
-      connection.setRequestMethod("GET");
-      responseCode = connection.getResponseCode();
-      if (responseCode == HttpURLConnection.HTTP_OK) {
-        scanner = new Scanner(covidDataUrl.openStream());
-      }
-    } catch (IOException e) {
-      System.out.println("Unable to open connection");
-    }
-    return scanner;
+      int days = Integer.parseInt(window);
+      if (days >= 1 && days < reports.dates.size()) {
+        return days;
+      }
+    } catch (NumberFormatException e) {
+      // Answered below
+    }
+    response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+        "Window must be from 1 to " + (reports.dates.size() - 1) + " days");
+    return null;
   }
 
   /**
-   * Fill up the hashmap with the name of the location and coordinates as the key
-   * and with an array consisting of the confirmed case numbers as the value
+   * Establish connection to live Coivd-19 data set
    */
-  private void fillDataMap(Scanner scanner, Map<LocLatLng, List<Integer>> timeReports,
-      int datesOffset, int coordOffset, int territoryOffset, int dataOffset) {
-    boolean header = true;
-    boolean firstAccess = true;
-    worldCases = new ArrayList<Integer>();
+  private Path connectToData(String type) {
+    String url =
+        "https://raw.githubusercontent.com/CSSEGISandData/COVID-19/master/csse_covid_19_data/csse_covid_19_time_series/time_series_covid19_confirmed_"
+        + type + ".csv";
+    return fetcher.fetch(url);
+  }
 
-    // Parse the data set
-    String line = scanner.nextLine();
-    while (scanner.hasNextLine()) {
-      // If header line, get the dates that are being tracked
-      if (header) {
-        header = false;
-        String[] cells = line.split(",");
-        dates = new ArrayList<String>();
-        for (int j = 4 + datesOffset; j < cells.length; ++j) {
-          if (!cells[j].equals("")) {
-            dates.add(cells[j]);
-          }
-        }
+  /**
+   * Build a table with the name and coordinates of every location
+   * and its confirmed case numbers for each tracked date. The columns
+   * give where the territory name, latitude and first date appear.
+   * Rows are split into chunks that are parsed on the fork-join pool,
+   * then joined in file order, so the table is the same as a sequential parse
+   */
+  TimeSeriesTable fillDataMap(byte[] data, int territoryColumn, int coordColumn, int datesColumn) {
+    return fillDataMap(data, territoryColumn, coordColumn, datesColumn, 0, null);
+  }
+
+  /**
+   * Builds the table and also adds every row, with or without coordinates,
+   * to regions under the province in regionColumn and the country after it
+   */
+  TimeSeriesTable fillDataMap(byte[] data, int territoryColumn, int coordColumn, int datesColumn,
+      int regionColumn, RegionRollup.Builder regions) {
+    CsvReader csv = new CsvReader(data);
+
+    // The header line holds the dates that are being tracked
+    csv.next();
+    List<String> dates = new ArrayList<String>();
+    for (int j = datesColumn; j < csv.fieldCount(); ++j) {
+      if (!csv.isEmpty(j)) {
+        dates.add(csv.getString(j));
       }
-      line = scanner.nextLine();
-      String[] cells = line.split(",");
-      List<Integer> cases = new ArrayList<Integer>();
-      String territory = "";
+    }
 
-      // If the name of the territory contains a ", the offset needs to be bumped
-      int tempCoordOffset = coordOffset;
-      int tempTerritoryOffset = territoryOffset;
-      int tempDataOffset = dataOffset;
-      if (cells[0 + tempCoordOffset].contains("\"") || cells[1 + tempCoordOffset].contains("\"")) {
-        ++tempCoordOffset;
-        ++tempDataOffset;
-        ++tempTerritoryOffset;
-      }
-      // Ignore unassigned entires
-      if (cells[2 + tempCoordOffset].equals("")
-          || cells[3 + tempCoordOffset].equals("")) { // Entries represent coordinates
-        continue;
+    // Each chunk collects its regions separately, to be added in file order
+    List<ForkJoinTask<TimeSeriesTable>> chunks = new ArrayList<ForkJoinTask<TimeSeriesTable>>();
+    List<RegionRollup.Builder> chunkRegions = new ArrayList<RegionRollup.Builder>();
+    for (int start = csv.position(); start < data.length;) {
+      int chunkStart = start;
+      int chunkEnd = CsvReader.nextRecordStart(data, start, start + CHUNKBYTES, data.length);
+      RegionRollup.Builder part = regions == null ? null : regions.newPart();
+      chunkRegions.add(part);
+      chunks.add(ForkJoinPool.commonPool().submit(() -> fillChunk(
+          new CsvReader(data, chunkStart, chunkEnd), dates, territoryColumn, coordColumn,
+          datesColumn, regionColumn, part)));
+      start = chunkEnd;
+    }
+    List<TimeSeriesTable> tables = new ArrayList<TimeSeriesTable>(chunks.size());
+    for (int i = 0; i < chunks.size(); ++i) {
+      tables.add(chunks.get(i).join());
+      if (regions != null) {
+        regions.addAll(chunkRegions.get(i));
       }
-      if (cells[2 + tempCoordOffset].equals("0.0")
-          || cells[3 + tempCoordOffset].equals("0.0")) { // No coodrinates
+    }
+    return TimeSeriesTable.concat(dates, tables);
+  }
+
+  /**
+   * Build a table from the rows of one chunk, adding them to regions if it is not null
+   */
+  private TimeSeriesTable fillChunk(CsvReader csv, List<String> dates, int territoryColumn,
+      int coordColumn, int datesColumn, int regionColumn, RegionRollup.Builder regions) {
+    TimeSeriesTable.Builder timeReports = new TimeSeriesTable.Builder(dates);
+    int[] cases = new int[dates.size()];
+
+    // Parse the data set
+    while (csv.next()) {
+      // Unassigned entries have no coordinates
+      boolean located = !csv.isEmpty(coordColumn) && !csv.isEmpty(coordColumn + 1);
+      double lat = 0.0;
+      double lng = 0.0;
+      if (located) {
+        // Coordinates appear in these indicies
+        lat = csv.getDouble(coordColumn);
+        lng = csv.getDouble(coordColumn + 1);
+        located = lat != 0.0 && lng != 0.0;
+      }
+      // Unassigned entries still count towards their region
+      if (!located && regions == null) {
         continue;
       }
 
-      if (!cells[0 + tempTerritoryOffset].equals("")) { // Entry represents territory name
-        territory = cells[0 + tempTerritoryOffset];
-      } else if (!cells[1 + tempTerritoryOffset].equals(
-                     "")) { // For countires, name will appear in index 1
-        territory = cells[1 + tempTerritoryOffset];
-      }
-      // Coordinates appear in these indicies
-      double lat = Double.parseDouble(cells[2 + tempCoordOffset]);
-      double lng = Double.parseDouble(cells[3 + tempCoordOffset]);
-
-      // For building total worldwide history
-      if (firstAccess) {
-        firstAccess = false;
-        for (int i = 4 + tempDataOffset; i < cells.length; ++i) {
-          if (!cells[i].equals("")) {
-            int numCase = Integer.parseInt(cells[i]);
-            cases.add(numCase);
-            // If looking at global cases, create new entry in world array
-            if (coordOffset == 0) {
-              worldCases.add(numCase);
-            }
-          }
-        }
-      } else {
-        int globalOffset = -1;
-        for (int i = 4 + tempDataOffset; i < cells.length; ++i) {
-          if (!cells[i].equals("")) {
-            int numCase = Integer.parseInt(cells[i]);
-            cases.add(numCase);
-            // If looking at global cases, add to entry in world array
-            if (coordOffset == 0) {
-              ++globalOffset;
-              worldCases.set(globalOffset, worldCases.get(globalOffset) + numCase);
-            }
-          }
+      for (int day = 0; day < cases.length; ++day) {
+        if (!csv.isEmpty(datesColumn + day)) {
+          cases[day] = csv.getInt(datesColumn + day);
+        } else {
+          // Missing entries keep the last known total
+          cases[day] = day > 0 ? cases[day - 1] : 0;
         }
       }
-      timeReports.put(new LocLatLng(territory, lat, lng), cases);
+      if (regions != null) {
+        regions.add(csv.getString(regionColumn), csv.getString(regionColumn + 1), cases);
+      }
+      if (!located) {
+        continue;
+      }
+
+      String territory = "";
+      if (!csv.isEmpty(territoryColumn)) { // Entry represents territory name
+        territory = csv.getString(territoryColumn);
+      } else if (!csv.isEmpty(territoryColumn + 1)) { // For countires, name will appear next
+        territory = csv.getString(territoryColumn + 1);
+      }
+      timeReports.add(territory, lat, lng, cases);
     }
+    return timeReports.build();
+  }
 
-    scanner.close();
+  /**
+   * @return the coordinate written in the text
+   * @throws NumberFormatException if it is not a finite number
+   */
+  private static double parseCoordinate(String text) {
+    double coordinate = Double.parseDouble(text);
+    if (!Double.isFinite(coordinate)) {
+      throw new NumberFormatException("Coordinate is not finite: " + text);
+    }
+    return coordinate;
   }
 
   /**
@@ -287,24 +596,282 @@ public class OverTimeCasesServlet extends HttpServlet {
   }
 
   /**
-   * Maintains location name with its coordinates. Used as key
+   * Both data sets and everything derived from them. Never modified
+   * after construction; a refresh replaces the whole object
    */
-  class LocLatLng {
-    private String location;
-    private double lat;
-    private double lng;
+  private final class TimeReports {
+    private final TimeSeriesTable usTimeReports;
+    private final TimeSeriesTable globalTimeReports;
+    private final List<String> dates;
+    private final LocalDate firstDate;
+    private final LocationIndex locationIndex;
+    private final RegionRollup regions;
+    // Heatmaps by number of days in their window
+    private final ReadThroughCache<Integer, EncodedPayload> heatmaps;
+    // Options of a request that asks for none, and the response of every series to it
+    private final SeriesOptions defaultOptions;
+    private final EncodedPayload[] defaultResponses;
+    // Responses to other options, by series and the options they were asked with
+    private final ReadThroughCache<SeriesKey, EncodedPayload> responses;
 
-    public LocLatLng(String location, double lat, double lng) {
-      this.location = location;
-      this.lat = lat;
-      this.lng = lng;
+    TimeReports(
+        TimeSeriesTable usTimeReports, TimeSeriesTable globalTimeReports, RegionRollup regions) {
+      this.usTimeReports = usTimeReports;
+      this.globalTimeReports = globalTimeReports;
+      this.regions = regions;
+      long start = System.nanoTime();
+      dates = globalTimeReports.getDates();
+      firstDate = parseFirstDate();
+      locationIndex = buildLocationIndex();
+      start = Metrics.recordPhase("timereport", "index", start);
+      heatmaps = new ReadThroughCache<Integer, EncodedPayload>(HEATMAPWINDOWS, 0,
+          window -> new EncodedPayload(new Gson().toJson(buildRecentReports(window))));
+      // Encode the default heatmap ahead of the first request
+      heatmaps.get(DAYSINWEEK);
+      responses = new ReadThroughCache<SeriesKey, EncodedPayload>(
+          CACHEDSERIES, 0, key -> encode(key.series, key.options));
+      defaultOptions = new SeriesOptions(
+          SeriesWindow.of(firstDate, dates.size(), null, null, SeriesWindow.Step.DAILY),
+          false, null);
+      defaultResponses = encodeDefaultResponses();
+      Metrics.recordPhase("timereport", "serialize", start);
     }
 
-    public String toString() {
-      return "Location: " + location + "; "
-          + "Lat: " + lat + "; "
-          + "Lng: " + lng;
+    /**
+     * @return the encoded response of a series asked for with the options
+     */
+    private EncodedPayload getResponse(int series, SeriesOptions options) {
+      if (options.equals(defaultOptions)) {
+        return defaultResponses[series];
+      }
+      return responses.get(new SeriesKey(series, options));
+    }
+
+    private EncodedPayload encode(int series, SeriesOptions options) {
+      return new EncodedPayload(new Gson().toJson(
+          options.toLocationCases(this, getLocation(series), getSeries(series))));
+    }
+
+    /**
+     * Encodes the default response of every location and region, in batches on the
+     * fork-join pool, so requests without options never wait for an encoding or
+     * are pushed out of the cache by requests with them
+     */
+    private EncodedPayload[] encodeDefaultResponses() {
+      EncodedPayload[] encoded = new EncodedPayload[getRegionSeries(regions.size())];
+      List<ForkJoinTask<?>> batches = new ArrayList<ForkJoinTask<?>>();
+      for (int first = 0; first < encoded.length; first += ENCODEBATCH) {
+        int start = first;
+        int end = Math.min(encoded.length, first + ENCODEBATCH);
+        batches.add(ForkJoinPool.commonPool().submit(() -> {
+          for (int series = start; series < end; ++series) {
+            encoded[series] = encode(series, defaultOptions);
+          }
+        }));
+      }
+      // Joining makes every encoded payload visible to this thread
+      for (ForkJoinTask<?> batch : batches) {
+        batch.join();
+      }
+      return encoded;
+    }
+
+    /**
+     * @return series number of a region. Locations are numbered as in the index
+     *         and regions are numbered after them
+     */
+    private int getRegionSeries(int region) {
+      return globalTimeReports.size() + usTimeReports.size() + region;
+    }
+
+    /**
+     * @return name of a location or region. Global reports come first in the index
+     */
+    private String getLocation(int series) {
+      int location = series;
+      if (location < globalTimeReports.size()) {
+        return globalTimeReports.getLocation(location);
+      }
+      location -= globalTimeReports.size();
+      if (location < usTimeReports.size()) {
+        return usTimeReports.getLocation(location);
+      }
+      return regions.getName(location - usTimeReports.size());
+    }
+
+    /**
+     * @return case history of a location or region
+     */
+    private int[] getSeries(int series) {
+      int location = series;
+      if (location < globalTimeReports.size()) {
+        return globalTimeReports.getSeries(location);
+      }
+      location -= globalTimeReports.size();
+      if (location < usTimeReports.size()) {
+        return usTimeReports.getSeries(location);
+      }
+      return regions.getSeries(location - usTimeReports.size());
     }
+
+    /**
+     * @return date of the first day in the tables, which track consecutive days
+     */
+    private LocalDate parseFirstDate() {
+      if (dates.isEmpty()) {
+        return FIRSTDATE;
+      }
+      try {
+        return LocalDate.parse(dates.get(0), SeriesWindow.CSSEDATE);
+      } catch (DateTimeParseException e) {
+        System.out.println("Unable to parse first date: " + dates.get(0));
+        return FIRSTDATE;
+      }
+    }
+
+    /**
+     * Sums new cases over the last days in the window at every location for the heatmap
+     */
+    private List<recentReport> buildRecentReports(int window) {
+      List<recentReport> recentReports = new ArrayList<recentReport>();
+      // Go through all global reports
+      for (int i = 0; i < globalTimeReports.size(); ++i) {
+        // Do not include US report becuase that will be represented by county
+        if (globalTimeReports.getLocation(i).contains("US")) {
+          continue;
+        }
+        addRecentReport(recentReports, globalTimeReports, i, window);
+      }
+      // Go through all US reports
+      for (int i = 0; i < usTimeReports.size(); ++i) {
+        addRecentReport(recentReports, usTimeReports, i, window);
+      }
+      return recentReports;
+    }
+
+    private void addRecentReport(
+        List<recentReport> recentReports, TimeSeriesTable table, int i, int window) {
+      // Counts are cumulative, so new cases over the window are the
+      // latest count minus the count the window's length earlier
+      int lastDay = table.days() - 1;
+      int casesSum = table.newCases(i, lastDay - window, lastDay);
+      // Negative cases can happen when governments remove false positive tests
+      if (casesSum < 0) {
+        casesSum = 0;
+      }
+      recentReports.add(new recentReport(table.getLat(i), table.getLng(i), casesSum));
+    }
+
+    /**
+     * Index every US and global report by coordinates. US reports are preferred
+     * when a county and a country are equally close to the requested point
+     */
+    private LocationIndex buildLocationIndex() {
+      int globalSize = globalTimeReports.size();
+      int size = globalSize + usTimeReports.size();
+      double[] lats = new double[size];
+      double[] lngs = new double[size];
+      boolean[] usReport = new boolean[size];
+      for (int i = 0; i < globalSize; ++i) {
+        lats[i] = globalTimeReports.getLat(i);
+        lngs[i] = globalTimeReports.getLng(i);
+      }
+      for (int i = 0; i < usTimeReports.size(); ++i) {
+        lats[globalSize + i] = usTimeReports.getLat(i);
+        lngs[globalSize + i] = usTimeReports.getLng(i);
+        usReport[globalSize + i] = true;
+      }
+      return new LocationIndex(lats, lngs, usReport);
+    }
+  }
+
+  /**
+   * Dates, encoding and averaging window a request asks for
+   */
+  private final class SeriesOptions {
+    private final SeriesWindow range;
+    private final boolean delta;
+    private final Integer window;
+
+    SeriesOptions(SeriesWindow range, boolean delta, Integer window) {
+      this.range = range;
+      this.delta = delta;
+      this.window = window;
+    }
+
+    /**
+     * Options are equal when they give the same response for every series
+     */
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof SeriesOptions)) {
+        return false;
+      }
+      SeriesOptions options = (SeriesOptions) other;
+      return range.equals(options.range) && delta == options.delta
+          && Objects.equals(window, options.window);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(range, delta, window);
+    }
+
+    /**
+     * @return the cases of a location as a LocationCases or CompactLocationCases
+     */
+    Object toLocationCases(TimeReports reports, String location, int[] cases) {
+      double[] average =
+          window == null ? null : range.sample(SeriesWindow.movingAverage(cases, window));
+      if (delta) {
+        CompactLocationCases toReturn = new CompactLocationCases(location, range, cases);
+        toReturn.average = average;
+        return toReturn;
+      }
+      LocationCases toReturn =
+          new LocationCases(location, range.sample(cases), range.sample(reports.dates));
+      toReturn.average = average;
+      return toReturn;
+    }
+  }
+
+  /**
+   * Cached response of a series asked for with some options
+   */
+  private static final class SeriesKey {
+    private final int series;
+    private final SeriesOptions options;
+
+    SeriesKey(int series, SeriesOptions options) {
+      this.series = series;
+      this.options = options;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof SeriesKey)) {
+        return false;
+      }
+      SeriesKey key = (SeriesKey) other;
+      return series == key.series && options.equals(key.options);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * series + options.hashCode();
+    }
+  }
+
+  /**
+   * Body of a batch request
+   */
+  private static final class BatchRequest {
+    private Point[] points;
+  }
+
+  private static final class Point {
+    private Double lat;
+    private Double lng;
   }
 
   /**
@@ -312,21 +879,48 @@ public class OverTimeCasesServlet extends HttpServlet {
    */
   class LocationCases {
     private String location;
-    private List<Integer> cases;
+    private int[] cases;
     private List<String> dates;
+    // Average new cases per day over the window up to each date, if asked for
+    private double[] average;
 
-    public LocationCases(String location, List<Integer> cases, List<String> dates) {
+    public LocationCases(String location, int[] cases, List<String> dates) {
       this.location = location;
       this.cases = cases;
       this.dates = dates;
     }
 
     public String toString() {
-      return "Location: " + location + "; Cases: " + cases.toString()
+      return "Location: " + location + "; Cases: " + Arrays.toString(cases)
           + "; Dates: " + dates.toString();
     }
   }
 
+  /**
+   * Location with the first of its cases and the change on each later date.
+   * Dates are only given for the first and last case, as the ones between
+   * are each step apart
+   */
+  class CompactLocationCases {
+    private String location;
+    private String start;
+    private String end;
+    private String step;
+    private int[] cases;
+    // Average new cases per day over the window up to each date, if asked for
+    private double[] average;
+
+    public CompactLocationCases(String location, SeriesWindow window, int[] cumulative) {
+      this.location = location;
+      if (window.size() > 0) {
+        start = window.getDate(0).toString();
+        end = window.getDate(window.size() - 1).toString();
+      }
+      step = window.getStep().name().toLowerCase(Locale.ROOT);
+      cases = SeriesWindow.deltas(window.sample(cumulative));
+    }
+  }
+
   class recentReport {
     private double lat;
     private double lng;
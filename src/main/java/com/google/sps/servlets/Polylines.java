@@ -0,0 +1,70 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Arrays;
+
+/**
+ * Decodes polylines in the encoded format the Maps APIs use for routes.
+ * Each coordinate is the change from the one before, in units of 1e-5
+ * degrees, written in 5-bit chunks offset into printable characters
+ */
+final class Polylines {
+  private Polylines() {}
+
+  /**
+   * @return latitude and longitude of every point, interleaved
+   * @throws IllegalArgumentException if the polyline is not validly encoded
+   */
+  static double[] decode(String encoded) {
+    double[] points = new double[16];
+    int size = 0;
+    int lat = 0;
+    int lng = 0;
+    int[] position = {0};
+    while (position[0] < encoded.length()) {
+      lat += readValue(encoded, position);
+      lng += readValue(encoded, position);
+      if (size + 2 > points.length) {
+        points = Arrays.copyOf(points, points.length * 2);
+      }
+      points[size++] = lat / 1e5;
+      points[size++] = lng / 1e5;
+    }
+    return Arrays.copyOf(points, size);
+  }
+
+  /**
+   * Reads one signed value, advancing the position past it
+   */
+  private static int readValue(String encoded, int[] position) {
+    int result = 0;
+    int shift = 0;
+    int chunk;
+    do {
+      if (position[0] >= encoded.length() || shift > 30) {
+        throw new IllegalArgumentException("Truncated polyline");
+      }
+      chunk = encoded.charAt(position[0]++) - 63;
+      if (chunk < 0 || chunk > 63) {
+        throw new IllegalArgumentException("Invalid polyline character");
+      }
+      result |= (chunk & 0x1F) << shift;
+      shift += 5;
+    } while (chunk >= 0x20);
+    // The lowest bit holds the sign
+    return (result & 1) != 0 ? ~(result >>> 1) : result >>> 1;
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded least recently used cache in front of a slow lookup, for
+ * values that never change once they exist. Concurrent misses on the
+ * same key share a single load, and keys the loader has no value for
+ * are remembered for a short time so they do not hit the loader either.
+ * Large caches are split into stripes by key hash, each with its own lock
+ * and its own least recently used order, so hits on different keys
+ * rarely wait for each other and eviction is least recently used per stripe
+ */
+final class ReadThroughCache<K, V> {
+  private static final int MAXSTRIPES = 16;
+  // Smaller caches keep one exact order, as a few entries per stripe would evict too eagerly
+  private static final int MINSTRIPESIZE = 256;
+  private final long absentNanos;
+  private final Function<K, V> loader;
+  private final List<Stripe<K, V>> stripes = new ArrayList<Stripe<K, V>>();
+  private final Map<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+
+  /**
+   * @param loader returns the value for a key, or null if there is none.
+   *        If it throws, nothing is cached and the next get tries again
+   * @param absentMillis how long a key without a value is remembered
+   */
+  ReadThroughCache(int maximumSize, long absentMillis, Function<K, V> loader) {
+    this.absentNanos = TimeUnit.MILLISECONDS.toNanos(absentMillis);
+    this.loader = loader;
+    // A power of two, so a stripe is picked by masking the hash
+    int count = Integer.highestOneBit(
+        Math.max(1, Math.min(MAXSTRIPES, maximumSize / MINSTRIPESIZE)));
+    for (int i = 0; i < count; ++i) {
+      stripes.add(new Stripe<K, V>(maximumSize / count));
+    }
+  }
+
+  /**
+   * @return the value for the key, or null if there is none
+   */
+  V get(K key) {
+    Entry<V> entry = lookup(key);
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.value;
+    }
+    misses.incrementAndGet();
+
+    // The first thread to miss loads, the others wait for its result
+    FutureTask<V> load = new FutureTask<V>(() -> load(key));
+    FutureTask<V> running = loading.putIfAbsent(key, load);
+    if (running == null) {
+      running = load;
+      try {
+        load.run();
+      } finally {
+        loading.remove(key, load);
+      }
+    }
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading " + key, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @return number of lookups answered from the cache
+   */
+  long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of lookups that were not in the cache
+   */
+  long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return number of times the loader was called
+   */
+  long getLoadCount() {
+    return loads.get();
+  }
+
+  /**
+   * @return number of cached keys, including ones without a value
+   */
+  int size() {
+    int size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  private V load(K key) {
+    // Another load may have finished between the miss and this one starting
+    Entry<V> entry = lookup(key);
+    if (entry != null) {
+      return entry.value;
+    }
+    loads.incrementAndGet();
+    V value = loader.apply(key);
+    // Only keys without a value expire
+    long expiry = value == null ? System.nanoTime() + absentNanos : 0;
+    Stripe<K, V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      stripe.put(key, new Entry<V>(value, expiry));
+    }
+    return value;
+  }
+
+  /**
+   * @return the live entry for the key, or null if it is missing or expired
+   */
+  private Entry<V> lookup(K key) {
+    Stripe<K, V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      Entry<V> entry = stripe.get(key);
+      if (entry != null && entry.value == null && System.nanoTime() - entry.expiry >= 0) {
+        stripe.remove(key);
+        return null;
+      }
+      return entry;
+    }
+  }
+
+  private Stripe<K, V> stripeFor(K key) {
+    // Multiplying carries every low bit of the hash up into the bits the stripe
+    // is picked by, so keys that share their low bits, like even ids, still spread
+    return stripes.get(((key.hashCode() * 0x9E3779B9) >>> 16) & (stripes.size() - 1));
+  }
+
+  /**
+   * Access ordered, so the eldest entry is the least recently used
+   */
+  private static final class Stripe<K, V> extends LinkedHashMap<K, Entry<V>> {
+    private final int maximumSize;
+
+    private Stripe(int maximumSize) {
+      super(16, 0.75f, true);
+      this.maximumSize = maximumSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+      return size() > maximumSize;
+    }
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+    private final long expiry;
+
+    private Entry(V value, long expiry) {
+      this.value = value;
+      this.expiry = expiry;
+    }
+  }
+}
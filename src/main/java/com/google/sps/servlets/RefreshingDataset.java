@@ -0,0 +1,187 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.servlets.Constants;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Holds the latest snapshot of a data set and rebuilds it in the
+ * background each day after the CSSE data rolls over. Snapshots are
+ * built completely before being swapped in, so readers only ever see
+ * a whole snapshot and never wait for a download. Even the first
+ * snapshot loads in the background; until it has, requests are told
+ * to come back later rather than kept waiting
+ */
+final class RefreshingDataset<T> {
+  // Give the upstream repository time to publish after the rollover
+  private static final long PUBLISHDELAYMINUTES = 15;
+  private static final long RETRYMINUTES = 30;
+  // Retry sooner while there is nothing to serve at all
+  private static final long FIRSTRETRYMINUTES = 1;
+  // Suggested wait for clients while the first snapshot is loading
+  private static final long LOADINGRETRYSECONDS = 5;
+
+  /**
+   * Where the data set is in its life
+   */
+  enum State {
+    // The first snapshot has not loaded yet
+    LOADING,
+    // The latest refresh succeeded
+    READY,
+    // The latest refresh failed, so an older snapshot is served
+    STALE,
+    // No snapshot could be loaded; another attempt is scheduled
+    FAILED
+  }
+
+  private final String name;
+  private final Callable<T> loader;
+  private final ScheduledExecutorService executor;
+  private final CountDownLatch firstAttempt = new CountDownLatch(1);
+  private volatile T snapshot;
+  private volatile State state = State.LOADING;
+  // When the next load is due, in epoch milliseconds
+  private volatile long nextAttemptMillis = 0;
+
+  /**
+   * @param loader builds a new snapshot from scratch, or throws if it cannot
+   */
+  RefreshingDataset(String name, Callable<T> loader) {
+    this.name = name;
+    this.loader = loader;
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name + "-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts loading the first snapshot in the background, then schedules refreshes
+   */
+  void start() {
+    executor.execute(() -> scheduleNext(refresh()));
+  }
+
+  /**
+   * Stops refreshing. The current snapshot stays available
+   */
+  void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the latest snapshot, or null if none has loaded yet
+   */
+  T get() {
+    return snapshot;
+  }
+
+  State getState() {
+    return state;
+  }
+
+  /**
+   * Waits until the first load has either succeeded or failed
+   *
+   * @return false if it is still running after the timeout
+   */
+  boolean awaitFirstLoad(long timeout, TimeUnit unit) throws InterruptedException {
+    return firstAttempt.await(timeout, unit);
+  }
+
+  /**
+   * @return seconds a client should wait before asking again for data
+   *         that has not loaded
+   */
+  long retryAfterSeconds() {
+    if (state == State.LOADING) {
+      return LOADINGRETRYSECONDS;
+    }
+    long millis = nextAttemptMillis - System.currentTimeMillis();
+    return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999));
+  }
+
+  /**
+   * Responds with 503 and when to retry, for requests that arrive
+   * before any snapshot has loaded
+   */
+  void sendUnavailable(HttpServletResponse response) throws IOException {
+    response.setHeader("Retry-After", String.valueOf(retryAfterSeconds()));
+    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+        state == State.LOADING ? name + " is loading" : name + " is unavailable");
+  }
+
+  /**
+   * Builds a new snapshot and swaps it in. A failed load keeps the old one
+   */
+  private boolean refresh() {
+    try {
+      T next = loader.call();
+      if (next == null) {
+        System.out.println("Unable to refresh " + name);
+      } else {
+        snapshot = next;
+        state = State.READY;
+        return true;
+      }
+    } catch (Exception e) {
+      System.out.println("Unable to refresh " + name + ": " + e);
+    }
+    state = snapshot == null ? State.FAILED : State.STALE;
+    return false;
+  }
+
+  private void scheduleNext(boolean loaded) {
+    long delay = loaded ? millisUntilNextUpdate(Instant.now())
+        : TimeUnit.MINUTES.toMillis(snapshot == null ? FIRSTRETRYMINUTES : RETRYMINUTES);
+    nextAttemptMillis = System.currentTimeMillis() + delay;
+    // Set only after the state, so waiters see the outcome of the first load
+    firstAttempt.countDown();
+    try {
+      executor.schedule(() -> scheduleNext(refresh()), delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Stopped while loading
+    }
+  }
+
+  /**
+   * @return milliseconds from now until shortly after the next data rollover
+   */
+  static long millisUntilNextUpdate(Instant now) {
+    ZonedDateTime current = now.atZone(ZoneOffset.UTC);
+    ZonedDateTime next = current.toLocalDate()
+                             .atTime(Constants.DATAUPDATEHOUR, 0)
+                             .atZone(ZoneOffset.UTC)
+                             .plusMinutes(PUBLISHDELAYMINUTES);
+    if (!next.isAfter(current)) {
+      next = next.plusDays(1);
+    }
+    return Duration.between(current, next).toMillis();
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cumulative case counts summed over every region a row belongs to: its
+ * province or state, its country and the world. Regions are named like
+ * CSSE's combined keys, e.g. "California, US" or "Italy", and the world
+ * is "Worldwide". Counts are stored by column, like TimeSeriesTable, and
+ * a region is found by name with one hash lookup
+ */
+final class RegionRollup {
+  static final String WORLD = "Worldwide";
+
+  private final String[] names;
+  // Index of the region each region is part of, or -1 for the world
+  private final int[] parents;
+  private final int[] cases;
+  private final int days;
+  private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+  private RegionRollup(String[] names, int[] parents, int[] cases, int days) {
+    this.names = names;
+    this.parents = parents;
+    this.cases = cases;
+    this.days = days;
+    for (int region = 0; region < names.length; ++region) {
+      index.put(key(names[region]), region);
+    }
+  }
+
+  /**
+   * @return lookup key for a region name, which ignores case and surrounding spaces
+   */
+  private static String key(String name) {
+    return name.trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * @return number of regions, the world included
+   */
+  int size() {
+    return names.length;
+  }
+
+  /**
+   * @return index of the named region, or -1 if there is none
+   */
+  int find(String name) {
+    Integer region = index.get(key(name));
+    return region == null ? -1 : region;
+  }
+
+  String getName(int region) {
+    return names[region];
+  }
+
+  /**
+   * @return index of the region this one is part of, or -1 for the world
+   */
+  int getParent(int region) {
+    return parents[region];
+  }
+
+  /**
+   * @return copy of the confirmed case history summed over the region
+   */
+  int[] getSeries(int region) {
+    int start = region * days;
+    return Arrays.copyOfRange(cases, start, start + days);
+  }
+
+  /**
+   * Collects rows under the region they directly belong to. A region is
+   * always added after the region it is part of, so build can sum every
+   * region into its parent in one pass from the last region to the first
+   */
+  static final class Builder {
+    private final Set<String> excludedCountries;
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private int[] parents = new int[16];
+    // Counts of the rows directly in each region
+    private final List<int[]> cases = new ArrayList<int[]>();
+    // Length of the shortest row, or -1 before the first
+    private int days = -1;
+
+    /**
+     * @param excludedCountries countries whose rows are ignored, for when
+     *        another data set breaks them down further
+     */
+    Builder(String... excludedCountries) {
+      this(new HashSet<String>(Arrays.asList(excludedCountries)));
+    }
+
+    private Builder(Set<String> excludedCountries) {
+      this.excludedCountries = excludedCountries;
+      region(WORLD, -1);
+    }
+
+    /**
+     * @return empty builder that ignores the same countries, for rows
+     *         collected on another thread and then added with addAll
+     */
+    Builder newPart() {
+      return new Builder(excludedCountries);
+    }
+
+    /**
+     * Adds a row to its province, if it has one, and its country
+     */
+    Builder add(String province, String country, int[] row) {
+      if (country.isEmpty() || excludedCountries.contains(country)) {
+        return this;
+      }
+      int region = region(country, 0);
+      if (!province.isEmpty() && !province.equals(country)) {
+        region = region(province + ", " + country, region);
+      }
+      addCases(region, row);
+      return this;
+    }
+
+    /**
+     * Adds every row collected by another builder
+     */
+    Builder addAll(Builder other) {
+      // Regions map in order, so every parent is mapped before its children
+      int[] mapped = new int[other.names.size()];
+      for (int region = 0; region < mapped.length; ++region) {
+        int parent = other.parents[region];
+        mapped[region] = region(other.names.get(region), parent < 0 ? -1 : mapped[parent]);
+        if (other.cases.get(region) != null) {
+          addCases(mapped[region], other.cases.get(region));
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Sums every region into the one it is part of, deepest regions first
+     */
+    RegionRollup build() {
+      int size = names.size();
+      int days = Math.max(this.days, 0);
+      int[] rollup = new int[size * days];
+      for (int region = 0; region < size; ++region) {
+        if (cases.get(region) != null) {
+          System.arraycopy(cases.get(region), 0, rollup, region * days, days);
+        }
+      }
+      for (int region = size - 1; region > 0; --region) {
+        int start = region * days;
+        int parentStart = parents[region] * days;
+        for (int day = 0; day < days; ++day) {
+          rollup[parentStart + day] += rollup[start + day];
+        }
+      }
+      return new RegionRollup(names.toArray(new String[size]), Arrays.copyOf(parents, size),
+          rollup, days);
+    }
+
+    /**
+     * @return index of the named region, added under parent if it is new
+     */
+    private int region(String name, int parent) {
+      Integer region = index.get(name);
+      if (region != null) {
+        return region;
+      }
+      int added = names.size();
+      if (added == parents.length) {
+        parents = Arrays.copyOf(parents, added * 2);
+      }
+      names.add(name);
+      parents[added] = parent;
+      cases.add(null);
+      index.put(name, added);
+      return added;
+    }
+
+    /**
+     * Rows that track different numbers of days, like data sets updated at
+     * different times, start on the same day, so only the days every row
+     * tracks are rolled up
+     */
+    private void addCases(int region, int[] row) {
+      days = days < 0 ? row.length : Math.min(days, row.length);
+      int[] counts = cases.get(region);
+      if (counts == null) {
+        cases.set(region, row.clone());
+        return;
+      }
+      int shared = Math.min(counts.length, row.length);
+      for (int day = 0; day < shared; ++day) {
+        counts[day] += row[day];
+      }
+    }
+  }
+}
@@ -0,0 +1,352 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only archive of daily reports, one block of fixed-width records
+ * per day, memory mapped for reading. Territory names are kept once each
+ * in a separate file and records refer to them by number. Each block
+ * starts with its day and record count, so the index from day to block
+ * is rebuilt by stepping over the blocks when the archive is opened.
+ * The file is mapped once when opened; each append maps only its own block
+ */
+final class ReportArchive {
+  private static final int MAGIC = 0x564d5241;
+  private static final int VERSION = 1;
+  private static final int HEADERBYTES = 8;
+  private static final int BLOCKHEADERBYTES = 8;
+  // lat, lng, active, confirmed, deaths, recovered, perCap, territory
+  private static final int RECORDBYTES = 32;
+
+  private final Path dataFile;
+  private final Path namesFile;
+  // Guarded by this; only read and changed by appends
+  private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+  private volatile View view =
+      new View(Collections.<LocalDate, ByteBuffer>emptyMap(), Collections.<String>emptyList());
+
+  /**
+   * @param directory where the archive files are kept
+   */
+  ReportArchive(Path directory) {
+    dataFile = directory.resolve("reports.archive");
+    namesFile = directory.resolve("reports.names");
+  }
+
+  /**
+   * Opens the archive files, creating them if they do not exist. A block
+   * left half written by an interrupted append is dropped; files from
+   * another format version are started over
+   */
+  synchronized void open() throws IOException {
+    Files.createDirectories(dataFile.getParent());
+    List<String> names = readNames();
+    if (!hasCurrentHeader()) {
+      Files.deleteIfExists(namesFile);
+      names.clear();
+      try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(dataFile))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+      }
+    }
+    nameIds.clear();
+    for (int i = 0; i < names.size(); ++i) {
+      nameIds.put(names.get(i), i);
+    }
+
+    Map<LocalDate, Long> offsets = new HashMap<LocalDate, Long>();
+    long offset = HEADERBYTES;
+    try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ,
+             StandardOpenOption.WRITE)) {
+      long size = channel.size();
+      ByteBuffer header = ByteBuffer.allocate(BLOCKHEADERBYTES);
+      while (offset + BLOCKHEADERBYTES <= size) {
+        header.clear();
+        channel.read(header, offset);
+        header.flip();
+        LocalDate day = LocalDate.ofEpochDay(header.getInt());
+        long end = offset + BLOCKHEADERBYTES + (long) header.getInt() * RECORDBYTES;
+        if (end > size) {
+          break;
+        }
+        offsets.put(day, offset);
+        offset = end;
+      }
+      if (offset < size) {
+        System.out.println("Dropping incomplete report archive block");
+        channel.truncate(offset);
+      }
+    }
+    ByteBuffer archive = map(0, offset);
+    Map<LocalDate, ByteBuffer> blocks = new HashMap<LocalDate, ByteBuffer>();
+    for (Map.Entry<LocalDate, Long> block : offsets.entrySet()) {
+      ByteBuffer slice = archive.duplicate();
+      slice.position(block.getValue().intValue());
+      blocks.put(block.getKey(), slice.slice());
+    }
+    view = new View(blocks, names);
+  }
+
+  /**
+   * @return true if the day has been archived, even with no reports
+   */
+  boolean contains(LocalDate day) {
+    return view.blocks.containsKey(day);
+  }
+
+  /**
+   * @return number of archived days
+   */
+  int days() {
+    return view.blocks.size();
+  }
+
+  /**
+   * @return the day's reports, read straight from the mapped archive,
+   *         or null if the day has not been archived
+   */
+  DayReports get(LocalDate day) {
+    View current = view;
+    ByteBuffer block = current.blocks.get(day);
+    if (block == null) {
+      return null;
+    }
+    return new DayReports(block, current.names);
+  }
+
+  /**
+   * Adds a day of reports to the end of the archive
+   *
+   * @throws IllegalStateException if the day is already archived
+   */
+  synchronized void append(LocalDate day, List<Row> rows) throws IOException {
+    View current = view;
+    if (current.blocks.containsKey(day)) {
+      throw new IllegalStateException(day + " is already archived");
+    }
+    // Names are written first, so a record never refers to a missing name
+    List<String> names = new ArrayList<String>(current.names);
+    int[] ids = new int[rows.size()];
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+             Files.newOutputStream(namesFile, StandardOpenOption.CREATE,
+                 StandardOpenOption.APPEND)))) {
+      for (int i = 0; i < ids.length; ++i) {
+        String territory = rows.get(i).territory;
+        Integer id = nameIds.get(territory);
+        if (id == null) {
+          id = names.size();
+          names.add(territory);
+          nameIds.put(territory, id);
+          byte[] bytes = territory.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(bytes.length);
+          out.write(bytes);
+        }
+        ids[i] = id;
+      }
+    }
+
+    ByteBuffer block = ByteBuffer.allocate(BLOCKHEADERBYTES + rows.size() * RECORDBYTES);
+    block.putInt((int) day.toEpochDay());
+    block.putInt(rows.size());
+    for (int i = 0; i < ids.length; ++i) {
+      Row row = rows.get(i);
+      block.putFloat((float) row.lat);
+      block.putFloat((float) row.lng);
+      block.putInt(row.active);
+      block.putInt(row.confirmed);
+      block.putInt(row.deaths);
+      block.putInt(row.recovered);
+      block.putFloat((float) row.perCap);
+      block.putInt(ids[i]);
+    }
+    block.flip();
+    long offset;
+    try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+      offset = channel.size();
+      channel.position(offset);
+      while (block.hasRemaining()) {
+        channel.write(block);
+      }
+    }
+
+    Map<LocalDate, ByteBuffer> blocks = new HashMap<LocalDate, ByteBuffer>(current.blocks);
+    blocks.put(day, map(offset, block.limit()));
+    view = new View(blocks, names);
+  }
+
+  private boolean hasCurrentHeader() throws IOException {
+    if (!Files.isRegularFile(dataFile) || Files.size(dataFile) < HEADERBYTES) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(dataFile))) {
+      return in.readInt() == MAGIC && in.readInt() == VERSION;
+    }
+  }
+
+  private List<String> readNames() throws IOException {
+    List<String> names = new ArrayList<String>();
+    if (!Files.isRegularFile(namesFile)) {
+      return names;
+    }
+    long complete = 0;
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(namesFile))) {
+      while (true) {
+        int length = in.readUnsignedShort();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        names.add(new String(bytes, StandardCharsets.UTF_8));
+        complete += 2 + length;
+      }
+    } catch (EOFException e) {
+      // End of the names, or the end of one that was cut off
+    }
+    if (complete < Files.size(namesFile)) {
+      try (FileChannel channel = FileChannel.open(namesFile, StandardOpenOption.WRITE)) {
+        channel.truncate(complete);
+      }
+    }
+    return names;
+  }
+
+  private ByteBuffer map(long offset, long length) throws IOException {
+    try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+  }
+
+  /**
+   * The mapped block of every archived day and the names they refer to.
+   * Appends replace the whole view, but share the blocks already mapped
+   */
+  private static final class View {
+    private final Map<LocalDate, ByteBuffer> blocks;
+    private final List<String> names;
+
+    private View(Map<LocalDate, ByteBuffer> blocks, List<String> names) {
+      this.blocks = blocks;
+      this.names = names;
+    }
+  }
+
+  /**
+   * One report to archive. Territory names longer than 100 characters are cut short
+   */
+  static final class Row {
+    private final String territory;
+    private final double lat;
+    private final double lng;
+    private final int active;
+    private final int confirmed;
+    private final int deaths;
+    private final int recovered;
+    private final double perCap;
+
+    Row(String territory, double lat, double lng, int active, int confirmed, int deaths,
+        int recovered, double perCap) {
+      this.territory = territory.length() > 100 ? territory.substring(0, 100) : territory;
+      this.lat = lat;
+      this.lng = lng;
+      this.active = active;
+      this.confirmed = confirmed;
+      this.deaths = deaths;
+      this.recovered = recovered;
+      this.perCap = perCap;
+    }
+  }
+
+  /**
+   * The reports archived for a day. Values are read from the mapped
+   * file with absolute reads, so a view can be shared between threads
+   */
+  static final class DayReports {
+    private final ByteBuffer block;
+    private final List<String> names;
+    private final int size;
+
+    private DayReports(ByteBuffer block, List<String> names) {
+      this.block = block;
+      this.names = names;
+      size = block.getInt(4);
+    }
+
+    int size() {
+      return size;
+    }
+
+    String getTerritory(int report) {
+      int id = block.getInt(record(report) + 28);
+      return id < names.size() ? names.get(id) : "";
+    }
+
+    double getLat(int report) {
+      return widen(block.getFloat(record(report)));
+    }
+
+    double getLng(int report) {
+      return widen(block.getFloat(record(report) + 4));
+    }
+
+    int getActive(int report) {
+      return block.getInt(record(report) + 8);
+    }
+
+    int getConfirmed(int report) {
+      return block.getInt(record(report) + 12);
+    }
+
+    int getDeaths(int report) {
+      return block.getInt(record(report) + 16);
+    }
+
+    int getRecovered(int report) {
+      return block.getInt(record(report) + 20);
+    }
+
+    double getPerCap(int report) {
+      return widen(block.getFloat(record(report) + 24));
+    }
+
+    private static int record(int report) {
+      return BLOCKHEADERBYTES + report * RECORDBYTES;
+    }
+
+    /**
+     * @return the double written the same way as the float, so it does
+     *         not gain digits the archive never stored
+     */
+    private static double widen(float value) {
+      return Double.parseDouble(Float.toString(value));
+    }
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Keeps the CSSE daily reports that have been asked for in a report
+ * archive, downloading each day the first time it is needed. The daily
+ * report columns changed over time, so they are found by their header names
+ */
+final class ReportHistory {
+  static final LocalDate FIRSTDAY = LocalDate.of(2020, 1, 22);
+  // Format of the dates in daily report file names
+  static final DateTimeFormatter FILEDATE = DateTimeFormatter.ofPattern("MM-dd-yyyy", Locale.ROOT);
+
+  private final DataFetcher fetcher;
+  private final Function<LocalDate, String> urls;
+  private final ReportArchive archive;
+  private boolean opened = false;
+
+  ReportHistory(DataFetcher fetcher) {
+    this(fetcher, ReportHistory::url);
+  }
+
+  /**
+   * @param urls gives the url of each day's report
+   */
+  ReportHistory(DataFetcher fetcher, Function<LocalDate, String> urls) {
+    this.fetcher = fetcher;
+    this.urls = urls;
+    archive = new ReportArchive(fetcher.getCacheDirectory());
+  }
+
+  /**
+   * @return url of the daily report for the day
+   */
+  static String url(LocalDate day) {
+    return "https://raw.githubusercontent.com/CSSEGISandData/COVID-19/master/csse_covid_19_data/csse_covid_19_daily_reports/"
+        + FILEDATE.format(day) + ".csv";
+  }
+
+  /**
+   * Returns the reports for the day, downloading and archiving them if
+   * this is the first time the day is asked for. A day whose report has
+   * no coordinates is archived empty, so it is not downloaded again
+   *
+   * @param latest most recent day with a report; later days are not looked for
+   * @return the day's reports, or null if it has none with coordinates
+   * @throws IOException if the report cannot be downloaded or archived
+   */
+  ReportArchive.DayReports get(LocalDate day, LocalDate latest) throws IOException {
+    if (day.isBefore(FIRSTDAY) || day.isAfter(latest)) {
+      return null;
+    }
+    open();
+    ReportArchive.DayReports reports = archive.get(day);
+    if (reports == null) {
+      String url = urls.apply(day);
+      Path data = fetcher.fetch(url);
+      if (data == null) {
+        throw new IOException("Unable to download " + url);
+      }
+      reports = archive(day, parseRows(Files.readAllBytes(data)));
+      // Past reports never change once archived; the latest one is still served
+      if (!day.equals(latest)) {
+        fetcher.discard(url);
+      }
+    }
+    return reports.size() == 0 ? null : reports;
+  }
+
+  private synchronized void open() throws IOException {
+    if (!opened) {
+      archive.open();
+      opened = true;
+    }
+  }
+
+  /**
+   * Appends the day unless another request archived it while this one downloaded
+   */
+  private synchronized ReportArchive.DayReports archive(
+      LocalDate day, List<ReportArchive.Row> rows) throws IOException {
+    if (!archive.contains(day)) {
+      archive.append(day, rows);
+    }
+    return archive.get(day);
+  }
+
+  /**
+   * Parses a daily report in any of the formats it has had. Reports
+   * without coordinates, and every report in files without any, are left out
+   */
+  static List<ReportArchive.Row> parseRows(byte[] data) {
+    List<ReportArchive.Row> rows = new ArrayList<ReportArchive.Row>();
+    CsvReader csv = new CsvReader(data);
+    if (!csv.next()) {
+      return rows;
+    }
+    int admin = column(csv, "Admin2");
+    int province = column(csv, "Province_State", "Province/State");
+    int country = column(csv, "Country_Region", "Country/Region");
+    int lat = column(csv, "Lat", "Latitude");
+    int lng = column(csv, "Long_", "Longitude");
+    int confirmed = column(csv, "Confirmed");
+    int deaths = column(csv, "Deaths");
+    int recovered = column(csv, "Recovered");
+    int active = column(csv, "Active");
+    int perCap = column(csv, "Incident_Rate", "Incidence_Rate");
+    if (lat < 0 || lng < 0) {
+      return rows;
+    }
+    while (csv.next()) {
+      if (csv.isEmpty(lat) || csv.isEmpty(lng)) {
+        continue;
+      }
+      try {
+        String territory = country >= 0 ? csv.getString(country) : "";
+        if (admin >= 0 && !csv.isEmpty(admin)) {
+          territory = csv.getString(admin);
+        } else if (province >= 0 && !csv.isEmpty(province)) {
+          territory = csv.getString(province);
+        }
+        int confirmedCases = getIntOrZero(csv, confirmed);
+        int deathCases = getIntOrZero(csv, deaths);
+        int recoveredCases = getIntOrZero(csv, recovered);
+        // Early reports have no active column; it was derived the same way
+        int activeCases = active >= 0 && !csv.isEmpty(active)
+            ? csv.getInt(active)
+            : confirmedCases - deathCases - recoveredCases;
+        double perCapCases = perCap >= 0 && !csv.isEmpty(perCap) && confirmedCases != 0
+            ? csv.getDouble(perCap)
+            : 0.0;
+        rows.add(new ReportArchive.Row(territory, csv.getDouble(lat), csv.getDouble(lng),
+            activeCases, confirmedCases, deathCases, recoveredCases, perCapCases));
+      } catch (NumberFormatException e) {
+        // Skip malformed reports rather than the whole day
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * @return index of the first header field with one of the names, or -1
+   */
+  private static int column(CsvReader header, String... names) {
+    for (int field = 0; field < header.fieldCount(); ++field) {
+      for (String name : names) {
+        if (header.fieldEquals(field, name)) {
+          return field;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static int getIntOrZero(CsvReader csv, int field) {
+    return field < 0 || csv.isEmpty(field) ? 0 : csv.getInt(field);
+  }
+}
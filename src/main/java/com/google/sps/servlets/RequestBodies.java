@@ -0,0 +1,50 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reads request bodies up to a size limit. The limit applies to the bytes
+ * actually read, as a chunked request has no content length to check
+ */
+final class RequestBodies {
+  private RequestBodies() {}
+
+  /**
+   * @return the body as UTF-8 text, or null if it is longer than maxBytes
+   */
+  static String read(HttpServletRequest request, int maxBytes) throws IOException {
+    if (request.getContentLength() > maxBytes) {
+      return null;
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = request.getInputStream()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        if (body.size() + read > maxBytes) {
+          return null;
+        }
+        body.write(buffer, 0, read);
+      }
+    }
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,208 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Days picked out of a daily series: those between two dates, every day,
+ * week or month counting back from the last one. Counting back means the
+ * latest day in the window is always included
+ */
+final class SeriesWindow {
+  // Format of the dates in the CSSE time series headers
+  static final DateTimeFormatter CSSEDATE = DateTimeFormatter.ofPattern("M/d/yy", Locale.ROOT);
+
+  /**
+   * Spacing between the days in a window
+   */
+  enum Step {
+    DAILY,
+    WEEKLY,
+    MONTHLY;
+
+    /**
+     * @throws IllegalArgumentException if the name is not a step
+     */
+    static Step parse(String name) {
+      return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private final LocalDate firstDate;
+  private final Step step;
+  // Indexes of the picked days, oldest first
+  private final int[] days;
+
+  private SeriesWindow(LocalDate firstDate, Step step, int[] days) {
+    this.firstDate = firstDate;
+    this.step = step;
+    this.days = days;
+  }
+
+  /**
+   * Picks days from a series of consecutive days. Dates outside the
+   * series are moved to its nearest end
+   *
+   * @param firstDate date of the first day in the series
+   * @param dayCount number of days in the series
+   * @param from first date of the window, or null for the start of the series
+   * @param to last date of the window, or null for the end of the series
+   */
+  static SeriesWindow of(
+      LocalDate firstDate, int dayCount, LocalDate from, LocalDate to, Step step) {
+    int first = from == null ? 0 : (int) Math.max(0, ChronoUnit.DAYS.between(firstDate, from));
+    int last = dayCount - 1;
+    if (to != null) {
+      last = (int) Math.min(last, ChronoUnit.DAYS.between(firstDate, to));
+    }
+    if (first > last) {
+      return new SeriesWindow(firstDate, step, new int[0]);
+    }
+    int[] days;
+    if (step == Step.DAILY) {
+      days = new int[last - first + 1];
+      for (int i = 0; i < days.length; ++i) {
+        days[i] = first + i;
+      }
+    } else if (step == Step.WEEKLY) {
+      days = new int[(last - first) / 7 + 1];
+      for (int i = days.length - 1, day = last; i >= 0; --i, day -= 7) {
+        days[i] = day;
+      }
+    } else {
+      // Months differ in length, so step back by calendar month from the last day
+      LocalDate lastDate = firstDate.plusDays(last);
+      List<Integer> picked = new ArrayList<Integer>();
+      for (int months = 0;; ++months) {
+        int day = (int) ChronoUnit.DAYS.between(firstDate, lastDate.minusMonths(months));
+        if (day < first) {
+          break;
+        }
+        picked.add(day);
+      }
+      days = new int[picked.size()];
+      for (int i = 0; i < days.length; ++i) {
+        days[i] = picked.get(days.length - 1 - i);
+      }
+    }
+    return new SeriesWindow(firstDate, step, days);
+  }
+
+  /**
+   * @return number of days in the window
+   */
+  int size() {
+    return days.length;
+  }
+
+  Step getStep() {
+    return step;
+  }
+
+  /**
+   * @return date of the index-th day in the window
+   */
+  LocalDate getDate(int index) {
+    return firstDate.plusDays(days[index]);
+  }
+
+  /**
+   * @return the values of the series on each day of the window
+   */
+  int[] sample(int[] series) {
+    int[] sampled = new int[days.length];
+    for (int i = 0; i < days.length; ++i) {
+      sampled[i] = series[days[i]];
+    }
+    return sampled;
+  }
+
+  /**
+   * @return the dates of the series on each day of the window
+   */
+  List<String> sample(List<String> dates) {
+    String[] sampled = new String[days.length];
+    for (int i = 0; i < days.length; ++i) {
+      sampled[i] = dates.get(days[i]);
+    }
+    return Arrays.asList(sampled);
+  }
+
+  /**
+   * @return for each day, the average new cases per day over the days
+   *         ending with it, to two decimal places. Days before the series
+   *         count as having no cases
+   */
+  static double[] movingAverage(int[] cumulative, int days) {
+    double[] averages = new double[cumulative.length];
+    for (int day = 0; day < cumulative.length; ++day) {
+      int before = day < days ? 0 : cumulative[day - days];
+      averages[day] = Math.round((cumulative[day] - before) * 100.0 / days) / 100.0;
+    }
+    return averages;
+  }
+
+  /**
+   * @return the values of the series on each day of the window
+   */
+  double[] sample(double[] series) {
+    double[] sampled = new double[days.length];
+    for (int i = 0; i < days.length; ++i) {
+      sampled[i] = series[days[i]];
+    }
+    return sampled;
+  }
+
+  /**
+   * @return the first value of a cumulative series followed by the change
+   *         from each value to the next, which are far shorter to write
+   */
+  static int[] deltas(int[] cumulative) {
+    int[] deltas = new int[cumulative.length];
+    for (int i = cumulative.length - 1; i > 0; --i) {
+      deltas[i] = cumulative[i] - cumulative[i - 1];
+    }
+    if (cumulative.length > 0) {
+      deltas[0] = cumulative[0];
+    }
+    return deltas;
+  }
+
+  /**
+   * Windows are equal when they pick the same days of the same series with
+   * the same step, however the request that made them named its dates
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof SeriesWindow)) {
+      return false;
+    }
+    SeriesWindow window = (SeriesWindow) other;
+    return firstDate.equals(window.firstDate) && step == window.step
+        && Arrays.equals(days, window.days);
+  }
+
+  @Override
+  public int hashCode() {
+    return (firstDate.hashCode() * 31 + step.hashCode()) * 31 + Arrays.hashCode(days);
+  }
+}
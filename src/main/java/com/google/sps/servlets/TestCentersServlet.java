@@ -15,17 +15,20 @@
 package com.google.sps.servlets;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.sps.servlets.Constants;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Scanner;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -38,26 +41,54 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet("/testcenters")
 public class TestCentersServlet extends HttpServlet {
-  private Set<Center> centers;
-  private String centersJson;
+  // Stop following pages if the feed keeps claiming there are more
+  private static final int MAXPAGES = 200;
+  // Size of the grid cells centers are bucketed into
+  private static final double CELLDEGREES = 0.5;
+  // Zoom levels below this return clusters instead of individual centers
+  private static final int CLUSTERZOOM = 10;
+  private final DataFetcher fetcher = new DataFetcher();
+  private RefreshingDataset<CenterData> centerData;
 
   /**
-   * Builds testing center set
+   * Starts building the testing center set, the grid index over it and
+   * the clusters for every zoom level below CLUSTERZOOM, and keeps them
+   * up to date
    */
   @Override
   public void init() {
-    // Build US hashmap
-    centers = new HashSet<Center>();
-    InputStream stream = connectToData();
-    try {
-      fillCenterSet(stream, centers);
-    } catch (IOException e) {
-      System.out.println("Unable to fill set");
-    }
+    centerData = new RefreshingDataset<CenterData>("testcenters", this::buildCenterData);
+    centerData.start();
+  }
+
+  @Override
+  public void destroy() {
+    centerData.stop();
+  }
+
+  /**
+   * Waits for the first attempt to build the centers to finish
+   *
+   * @return false if it is still running after the timeout
+   */
+  boolean awaitFirstLoad(long timeout, TimeUnit unit) throws InterruptedException {
+    return centerData.awaitFirstLoad(timeout, unit);
+  }
+
+  /**
+   * Downloads every center and indexes them
+   */
+  private CenterData buildCenterData() throws IOException {
+    Set<Center> centerSet = new HashSet<Center>();
+    fillCenterSet(centerSet, resultOffset -> Files.newInputStream(connectToData(resultOffset)));
+    return new CenterData(centerSet.toArray(new Center[0]));
   }
 
   /**
-   * Returns testing centers within given coordinates
+   * Returns testing centers within given coordinates, at most limit of them.
+   * A west edge greater than the east edge means the box crosses the antimeridian.
+   * If a zoom below CLUSTERZOOM is given, returns clusters of centers instead.
+   * Returns 400 if the limit or zoom is not a number, or 503 if the centers have not loaded yet
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -69,170 +100,188 @@ public class TestCentersServlet extends HttpServlet {
     double swlng = Double.parseDouble(getRequestParameterOrDefault(request, "swlng", "0.0"));
     double nelat = Double.parseDouble(getRequestParameterOrDefault(request, "nelat", "0.0"));
     double nelng = Double.parseDouble(getRequestParameterOrDefault(request, "nelng", "0.0"));
+    int limit;
+    try {
+      limit = Integer.parseInt(
+          getRequestParameterOrDefault(request, "limit", String.valueOf(Integer.MAX_VALUE)));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit");
+      return;
+    }
+    int zoom;
+    try {
+      zoom = Integer.parseInt(
+          getRequestParameterOrDefault(request, "zoom", String.valueOf(CLUSTERZOOM)));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid zoom");
+      return;
+    }
 
-    // Return centers within given coordinates
-    Set<Center> returnCenters = new HashSet<Center>();
-    for (Center center : centers) {
-      if (center.lat > swlat && center.lat < nelat && center.lng > swlng && center.lng < nelng) {
-        returnCenters.add(center);
-      }
+    CenterData data = centerData.get();
+    if (data == null) {
+      centerData.sendUnavailable(response);
+      return;
     }
+
     Gson gson = new Gson();
+    if (zoom < CLUSTERZOOM) {
+      response.getWriter().println(
+          gson.toJson(data.clusterIndex.query(zoom, swlat, swlng, nelat, nelng, limit)));
+      return;
+    }
+
+    // Return centers within given coordinates
+    List<Center> returnCenters = new ArrayList<Center>();
+    for (int index : data.centerIndex.query(swlat, swlng, nelat, nelng, limit)) {
+      returnCenters.add(data.centers[index]);
+    }
     String returnCentersJson = gson.toJson(returnCenters);
     response.getWriter().println(returnCentersJson);
   }
 
   /**
-   * Establish connection to live Coivd-19 testing centers data set
+   * Establish connection to live Coivd-19 testing centers data set. Pages are
+   * ordered by OBJECTID, as offsets into an unordered result can skip or repeat centers
    */
-  private InputStream connectToData() {
-    URL centersUrl = null;
-    HttpURLConnection connection = null;
-    int responseCode = 0;
-    InputStream stream = null;
+  private Path connectToData(int resultOffset) throws IOException {
+    String url =
+        "https://services.arcgis.com/8ZpVMShClf8U8dae/arcgis/rest/services/TestingLocations_public/FeatureServer/0/query?where=1%3D1&outFields=fulladdr,phone,operhours,name&outSR=4326&f=json"
+        + "&orderByFields=OBJECTID&resultOffset=" + resultOffset;
+    Path data = fetcher.fetch(url);
+    if (data == null) {
+      throw new IOException("Unable to open connection");
+    }
+    return data;
+  }
 
+  /**
+   * Fill up centers set with every page of the data set. The service
+   * returns a limited number of features per request and sets
+   * exceededTransferLimit when more remain past the ones returned
+   */
+  void fillCenterSet(Set<Center> centers, CenterPages pages) throws IOException {
+    int resultOffset = 0;
+    long downloadNanos = 0;
+    long parseNanos = 0;
     try {
-      String url =
-          "https://services.arcgis.com/8ZpVMShClf8U8dae/arcgis/rest/services/TestingLocations_public/FeatureServer/0/query?where=1%3D1&outFields=fulladdr,phone,operhours,name&outSR=4326&f=json";
-      centersUrl = new URL(url);
-      connection = (HttpURLConnection) centersUrl.openConnection();
-      connection.setRequestMethod("GET");
-      responseCode = connection.getResponseCode();
-      if (responseCode == HttpURLConnection.HTTP_OK) {
-        stream = centersUrl.openStream();
+      for (int page = 0; page < MAXPAGES; ++page) {
+        long start = System.nanoTime();
+        CenterPage centerPage;
+        try (InputStream stream = pages.open(resultOffset)) {
+          long downloaded = System.nanoTime();
+          downloadNanos += downloaded - start;
+          centerPage = readCenterPage(stream, centers);
+          parseNanos += System.nanoTime() - downloaded;
+        }
+        resultOffset += centerPage.features;
+        if (!centerPage.exceededTransferLimit || centerPage.features == 0) {
+          return;
+        }
       }
-    } catch (IOException e) {
-      System.out.println("Unable to open connection");
+      System.out.println("Stopped loading centers after " + MAXPAGES + " pages");
+    } finally {
+      Metrics.addPhase("testcenters", "download", downloadNanos);
+      Metrics.addPhase("testcenters", "parse", parseNanos);
     }
-    return stream;
   }
 
   /**
-   * Parse through data, one character at a time,
-   * filling up centers set
+   * Parse through one page of data, one feature at a time,
+   * adding every center that has a location to the set.
+   * Fields may appear in any order and unknown fields are skipped
    */
-  private void fillCenterSet(InputStream stream, Set<Center> centers) throws IOException {
-    BufferedInputStream bufStream = new BufferedInputStream(stream);
-    Reader reader = new InputStreamReader(bufStream, Constants.ENCODING);
-    int c;
-
-    // Skip header to get to actual data
-    boolean firstBracketSeen = false;
-    int counter = 0;
-    while ((c = reader.read()) >= 0) {
-      if (c == 'f' && reader.read() == 'u' && reader.read() == 'l' && reader.read() == 'l'
-          && reader.read() == 'a' && reader.read() == 'd' && reader.read() == 'd'
-          && reader.read() == 'r' && reader.read() == '"' && reader.read() == ':') {
-        String addr = "Unknown";
-        // Check if null
-        if (reader.read() == '"') {
-          // Construct address, which ends with quotation mark
-          StringBuilder addrSB = new StringBuilder();
-          while ((c = reader.read()) != '"') {
-            addrSB.append((char) c);
-          }
-          addr = addrSB.toString();
-        } else {
-          // Read 3 times to skip null
-          for (int i = 0; i < 3; ++i) {
-            reader.read();
-          }
-        }
-        // Read 9 times to skip ,"phone":
-        for (int i = 0; i < 9; ++i) {
-          reader.read();
+  CenterPage readCenterPage(InputStream stream, Set<Center> centers) throws IOException {
+    CenterPage page = new CenterPage();
+    JsonReader reader = new JsonReader(
+        new InputStreamReader(new BufferedInputStream(stream), Constants.ENCODING));
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("features")) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          readFeature(reader, centers);
+          ++page.features;
         }
+        reader.endArray();
+      } else if (name.equals("exceededTransferLimit")) {
+        page.exceededTransferLimit = reader.nextBoolean();
+      } else if (name.equals("error")) {
+        throw new IOException("Testing centers query failed");
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return page;
+  }
 
-        String phone = "Unknown";
-        // Check if null
-        if (reader.read() == '"') {
-          // Construct phone number, which ends with quotation mark
-          StringBuilder phoneSB = new StringBuilder();
-          while ((c = reader.read()) != '"') {
-            phoneSB.append((char) c);
-          }
-          phone = phoneSB.toString();
-        } else {
-          // Read 3 times to skip null
-          for (int i = 0; i < 3; ++i) {
-            reader.read();
-          }
-        }
-        // Read 13 times to skip ,"operhours":
-        for (int i = 0; i < 13; ++i) {
-          reader.read();
-        }
+  /**
+   * Reads a feature, which holds the center's details under attributes
+   * and its coordinates under geometry
+   */
+  private void readFeature(JsonReader reader, Set<Center> centers) throws IOException {
+    String addr = "Unknown";
+    String phone = "Unknown";
+    String hours = "Unknown";
+    String name = "Unknown";
+    Double lat = null;
+    Double lng = null;
 
-        String hours = "Unknown";
-        // Check if null
-        if (reader.read() == '"') {
-          // Construct hours, which ends with quotation mark
-          StringBuilder hoursSB = new StringBuilder();
-          while ((c = reader.read()) != '"') {
-            hoursSB.append((char) c);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String field = reader.nextName();
+      if (field.equals("attributes") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String attribute = reader.nextName();
+          if (attribute.equals("fulladdr")) {
+            addr = readStringOrDefault(reader, addr);
+          } else if (attribute.equals("phone")) {
+            phone = readStringOrDefault(reader, phone);
+          } else if (attribute.equals("operhours")) {
+            hours = readStringOrDefault(reader, hours);
+          } else if (attribute.equals("name")) {
+            name = readStringOrDefault(reader, name);
+          } else {
+            reader.skipValue();
           }
-          hours = hoursSB.toString();
-        } else {
-          // Read 3 times to skip null
-          for (int i = 0; i < 3; ++i) {
-            reader.read();
-          }
-        }
-        // Read 8 times to skip ,"name":
-        for (int i = 0; i < 8; ++i) {
-          reader.read();
         }
-
-        String name = "Unknown";
-        // Check if null
-        if (reader.read() == '"') {
-          // Construct name, which ends with quotation mark
-          StringBuilder nameSB = new StringBuilder();
-          while ((c = reader.read()) != '"') {
-            nameSB.append((char) c);
-          }
-          name = nameSB.toString();
-        } else {
-          // Read 3 times to skip null
-          for (int i = 0; i < 3; ++i) {
-            reader.read();
+        reader.endObject();
+      } else if (field.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String coordinate = reader.nextName();
+          if (coordinate.equals("x") && reader.peek() == JsonToken.NUMBER) {
+            lng = reader.nextDouble();
+          } else if (coordinate.equals("y") && reader.peek() == JsonToken.NUMBER) {
+            lat = reader.nextDouble();
+          } else {
+            reader.skipValue();
           }
         }
-        // Read 3 times to skip },"
-        for (int i = 0; i < 3; ++i) {
-          reader.read();
-        }
+        reader.endObject();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
 
-        // Ensure that there is a geometry
-        if (!(reader.read() == 'g' && reader.read() == 'e' && reader.read() == 'o'
-                && reader.read() == 'm' && reader.read() == 'e' && reader.read() == 't'
-                && reader.read() == 'r' && reader.read() == 'y')) {
-          continue;
-        }
-        // Read 7 times to skip ":{"x":
-        for (int i = 0; i < 7; ++i) {
-          reader.read();
-        }
-        // Construct longitude, which ends with comma
-        StringBuilder lngSB = new StringBuilder();
-        while ((c = reader.read()) != ',') {
-          lngSB.append((char) c);
-        }
-        double lng = Double.parseDouble(lngSB.toString());
-        // Read 4 times to skip "y":
-        for (int i = 0; i < 4; ++i) {
-          reader.read();
-        }
-        // Construct latitude, which ends with brace
-        StringBuilder latSB = new StringBuilder();
-        while ((c = reader.read()) != '}') {
-          latSB.append((char) c);
-        }
-        double lat = Double.parseDouble(latSB.toString());
+    // Ensure that there is a geometry
+    if (lat != null && lng != null) {
+      centers.add(new Center(lat, lng, name, addr, phone, hours));
+    }
+  }
 
-        centers.add(new Center(lat, lng, name, addr, phone, hours));
-      }
+  /**
+   * @return the string value, or the default value if it is null
+   */
+  private String readStringOrDefault(JsonReader reader, String defaultValue) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return defaultValue;
     }
+    return reader.nextString();
   }
 
   /**
@@ -248,6 +297,45 @@ public class TestCentersServlet extends HttpServlet {
     return value;
   }
 
+  /**
+   * Every center with the grid index over them and the clusters for
+   * every zoom level below CLUSTERZOOM. A refresh replaces the whole object
+   */
+  private static final class CenterData {
+    private final Center[] centers;
+    private final GridIndex centerIndex;
+    private final ClusterIndex clusterIndex;
+
+    CenterData(Center[] centers) {
+      long start = System.nanoTime();
+      double[] lats = new double[centers.length];
+      double[] lngs = new double[centers.length];
+      for (int i = 0; i < centers.length; ++i) {
+        lats[i] = centers[i].lat;
+        lngs[i] = centers[i].lng;
+      }
+      this.centers = centers;
+      centerIndex = new GridIndex(lats, lngs, CELLDEGREES);
+      clusterIndex = new ClusterIndex(lats, lngs, CLUSTERZOOM);
+      Metrics.recordPhase("testcenters", "index", start);
+    }
+  }
+
+  /**
+   * Opens the page of the data set starting at a result offset
+   */
+  interface CenterPages {
+    InputStream open(int resultOffset) throws IOException;
+  }
+
+  /**
+   * Number of features on a page and whether more pages follow
+   */
+  class CenterPage {
+    private int features = 0;
+    private boolean exceededTransferLimit = false;
+  }
+
   /**
    * Maintains Center with coordinates, name, address, phone number, and open hours
    */
@@ -268,6 +356,14 @@ public class TestCentersServlet extends HttpServlet {
       this.hours = hours;
     }
 
+    double getLat() {
+      return lat;
+    }
+
+    double getLng() {
+      return lng;
+    }
+
     public String toString() {
       return "Lat: " + lat + "; Lng: " + lng + "; Name: " + name + "; Address: " + addr
           + "; Phone: " + phone + "; Hours: " + hours;
@@ -0,0 +1,189 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cumulative case counts for a fixed set of locations, stored by column.
+ * Location names and coordinates are kept in parallel arrays and every
+ * count lives in a single int array indexed by location * days + day.
+ * Every location shares the same list of tracked dates
+ */
+final class TimeSeriesTable {
+  private final String[] locations;
+  private final double[] lats;
+  private final double[] lngs;
+  private final int[] cases;
+  private final List<String> dates;
+  private final int days;
+
+  private TimeSeriesTable(
+      String[] locations, double[] lats, double[] lngs, int[] cases, List<String> dates) {
+    this.locations = locations;
+    this.lats = lats;
+    this.lngs = lngs;
+    this.cases = cases;
+    this.dates = dates;
+    this.days = dates.size();
+  }
+
+  /**
+   * Joins tables that track the same dates, keeping the rows in the order given
+   */
+  static TimeSeriesTable concat(List<String> dates, List<TimeSeriesTable> parts) {
+    int size = 0;
+    for (TimeSeriesTable part : parts) {
+      size += part.size();
+    }
+    int days = dates.size();
+    String[] locations = new String[size];
+    double[] lats = new double[size];
+    double[] lngs = new double[size];
+    int[] cases = new int[size * days];
+    int offset = 0;
+    for (TimeSeriesTable part : parts) {
+      if (part.days != days) {
+        throw new IllegalArgumentException("Tables track different dates");
+      }
+      int length = part.size();
+      System.arraycopy(part.locations, 0, locations, offset, length);
+      System.arraycopy(part.lats, 0, lats, offset, length);
+      System.arraycopy(part.lngs, 0, lngs, offset, length);
+      System.arraycopy(part.cases, 0, cases, offset * days, length * days);
+      offset += length;
+    }
+    return new TimeSeriesTable(locations, lats, lngs, cases,
+        Collections.unmodifiableList(new ArrayList<String>(dates)));
+  }
+
+  /**
+   * @return number of locations
+   */
+  int size() {
+    return locations.length;
+  }
+
+  /**
+   * @return number of days tracked for every location
+   */
+  int days() {
+    return days;
+  }
+
+  /**
+   * @return tracked dates in m/d/yy format, oldest first
+   */
+  List<String> getDates() {
+    return dates;
+  }
+
+  String getLocation(int location) {
+    return locations[location];
+  }
+
+  double getLat(int location) {
+    return lats[location];
+  }
+
+  double getLng(int location) {
+    return lngs[location];
+  }
+
+  /**
+   * @return new cases at the location after fromDay, up to and including toDay.
+   *         Counts are cumulative, so any window is one subtraction. A day
+   *         before the first tracked day counts as having no cases
+   */
+  int newCases(int location, int fromDay, int toDay) {
+    int start = location * days;
+    int before = fromDay < 0 ? 0 : cases[start + fromDay];
+    int after = toDay < 0 ? 0 : cases[start + toDay];
+    return after - before;
+  }
+
+  /**
+   * @return copy of the confirmed case history of the location
+   */
+  int[] getSeries(int location) {
+    int start = location * days;
+    return Arrays.copyOfRange(cases, start, start + days);
+  }
+
+  /**
+   * @return table of the first days tracked at every location, or this
+   *         table if it tracks no more days than that
+   */
+  TimeSeriesTable firstDays(int days) {
+    if (days >= this.days) {
+      return this;
+    }
+    int[] kept = new int[locations.length * days];
+    for (int location = 0; location < locations.length; ++location) {
+      System.arraycopy(cases, location * this.days, kept, location * days, days);
+    }
+    return new TimeSeriesTable(locations, lats, lngs, kept, dates.subList(0, days));
+  }
+
+  /**
+   * Collects rows one location at a time, growing the columns as needed
+   */
+  static final class Builder {
+    private final List<String> dates;
+    private final int days;
+    private String[] locations = new String[16];
+    private double[] lats = new double[16];
+    private double[] lngs = new double[16];
+    private int[] cases;
+    private int size = 0;
+
+    Builder(List<String> dates) {
+      this.dates = Collections.unmodifiableList(new ArrayList<String>(dates));
+      this.days = dates.size();
+      cases = new int[16 * days];
+    }
+
+    int days() {
+      return days;
+    }
+
+    /**
+     * Adds a location with the first days() values of row as its history
+     */
+    Builder add(String location, double lat, double lng, int[] row) {
+      if (size == locations.length) {
+        int capacity = size * 2;
+        locations = Arrays.copyOf(locations, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        lngs = Arrays.copyOf(lngs, capacity);
+        cases = Arrays.copyOf(cases, capacity * days);
+      }
+      locations[size] = location;
+      lats[size] = lat;
+      lngs[size] = lng;
+      System.arraycopy(row, 0, cases, size * days, days);
+      ++size;
+      return this;
+    }
+
+    TimeSeriesTable build() {
+      return new TimeSeriesTable(Arrays.copyOf(locations, size), Arrays.copyOf(lats, size),
+          Arrays.copyOf(lngs, size), Arrays.copyOf(cases, size * days), dates);
+    }
+  }
+}
@@ -14,7 +14,7 @@
 
 /* exported calculateAndDisplayRoute addDirectionsListeners hideRouteMarkers
  * showRouteMarkers getRouteLink shortenLinkThenEmail createEmail */
-/* globals casesData map geocoder */
+/* globals map geocoder */
 
 const NUM_WAYPOINTS = 10;
 let directionsService;
@@ -24,6 +24,8 @@ let routeMarkers = [];
 let routeStart = '';
 let routeEnd = '';
 let travelMode = '';
+// Counts route searches, so a late answer for an older search is ignored
+let routeSearch = 0;
 
 /**
  * Set functions that run when directions inputs are changed
@@ -128,32 +130,51 @@ function calculateAndDisplayRoute() {
         console.debug(response);
         resetRoute();
         if (status === 'OK') {
-          const active = [];
           const distance = [];
           const time = [];
           for (let i = 0; i < response.routes.length; i++) {
             const values = processRoute(map, response, i);
-            active.push(values[0]);
-            distance.push(values[1]);
-            time.push(values[2]);
+            distance.push(values[0]);
+            time.push(values[1]);
           }
-          const activeDiff = percentDifference(active);
-          const distanceDiff = percentDifference(distance);
-          const timeDiff = percentDifference(time);
-          const score = [];
-          for (let i = 0; i < activeDiff.length; i++) {
-            score.push(activeDiff[i] + distanceDiff[i] + timeDiff[i]);
-          }
-          console.log('Route Scores:', score);
-          chosenRoute = score.indexOf(Math.min(...score));
-          changeSelectedRoute(chosenRoute);
+          const search = ++routeSearch;
+          fetchRouteCases(response.routes).then((routeCases) => {
+            if (search !== routeSearch) {
+              return;
+            }
+            const active = [];
+            for (let i = 0; i < routeCases.length; i++) {
+              const route = response.routes[i];
+              routeLines[i].active = routeCases[i].active;
+              active.push(routeCases[i].active);
+              addTableRow(
+                  routeCases[i].active, route.legs[0].distance.text,
+                  route.legs[0].duration.text);
+              console.log(`"Route ${i} has ${routeCases[i].active} cases"`);
+            }
+            const activeDiff = percentDifference(active);
+            const distanceDiff = percentDifference(distance);
+            const timeDiff = percentDifference(time);
+            const score = [];
+            for (let i = 0; i < activeDiff.length; i++) {
+              score.push(activeDiff[i] + distanceDiff[i] + timeDiff[i]);
+            }
+            console.log('Route Scores:', score);
+            chosenRoute = score.indexOf(Math.min(...score));
+            changeSelectedRoute(chosenRoute);
 
-          document.getElementById('show-alternate-routes')
-              .classList.remove('selected');
-          document.getElementById('show-expanded-routes')
-              .classList.remove('selected');
-          hideAlternateRoutes();
-          hideRouteInfo();
+            document.getElementById('show-alternate-routes')
+                .classList.remove('selected');
+            document.getElementById('show-expanded-routes')
+                .classList.remove('selected');
+            hideAlternateRoutes();
+            hideRouteInfo();
+          }).catch((err) => {
+            if (search === routeSearch) {
+              window.alert('Unable to count cases along the routes');
+            }
+            console.error('Route cases error', err);
+          });
         } else {
           window.alert('Directions request failed due to ' + status);
         }
@@ -177,17 +198,35 @@ function resetRoute() {
 }
 
 /**
- * Calculates number of active cases close to route
+ * Asks the server for the active cases along each route
+ *
+ * The server finds the closest cases data point to every point along a
+ * route and adds it to the route's total (excluding duplicates)
+ */
+function fetchRouteCases(routes) {
+  return fetchWhenReady('/report', {
+    method: 'POST',
+    headers: {'Content-Type': 'application/json'},
+    body: JSON.stringify({
+      routes: routes.map((route) => route.overview_polyline),
+    }),
+  }).then((response) => {
+    if (!response.ok) {
+      throw new Error(`Route cases request failed: ${response.status}`);
+    }
+    return response.json();
+  });
+}
+
+/**
+ * Draws a route and returns its distance and time
  *
  * Each directions response gives a list of points along the route
- * This function loop through those points and finds the closest cases data
- * point which is added to the routes total (excluding duplicates) This function
- * also creates markers that show which points are used but the markers are
- * hidden by default
+ * This function creates markers that show which points are used to count
+ * cases but the markers are hidden by default
  */
 function processRoute(mapObject, response, i) {
   const route = response.routes[i];
-  const counted = [];
   const points = route.overview_path;
   routeLines.push({
     route: new google.maps.DirectionsRenderer({
@@ -240,30 +279,13 @@ function processRoute(mapObject, response, i) {
         'lng': lng,
       });
     }
-    const closest = findClosest(points[j].lat(), points[j].lng());
-    let duplicate = false;
-    for (let k = 0; k < counted.length; k++) {
-      if (closest === counted[k]) {
-        duplicate = true;
-        break;
-      }
-    }
-    if (!duplicate) {
-      routeLines[i].active += closest.active;
-      counted.push(closest);
-    }
     if (j === Math.floor(points.length / 2)) {
       routeLines[i].infoWindow.setContent(i.toString());
       routeLines[i].infoWindow.setPosition(latLng);
       // routeLines[i].infoWindow.open(map);
     }
   }
-  addTableRow(
-      routeLines[i].active, route.legs[0].distance.text,
-      route.legs[0].duration.text);
-  console.log(`"Route ${i} has ${routeLines[i].active} cases"`);
   return [
-    routeLines[i].active,
     route.legs[0].distance.value,
     route.legs[0].duration.value,
   ];
@@ -438,23 +460,6 @@ function toggleExpandedRouteInfo() {
   }
 }
 
-/**
- * Return the case with latitude and longotude closest to given
- */
-function findClosest(lat, lng) {
-  let closest = {};
-  let closestValue = null;
-  for (let i = 0; i < casesData.length; i++) {
-    const diff =
-        Math.abs(casesData[i].lat - lat) + Math.abs(casesData[i].lng - lng);
-    if (closestValue === null || diff < closestValue) {
-      closest = casesData[i];
-      closestValue = diff;
-    }
-  }
-  return closest;
-}
-
 /**
  * Generate link to open google maps with selected route
  */
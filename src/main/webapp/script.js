@@ -32,6 +32,45 @@ let lastSearchClicked = 'none';
 let navOpen = false;
 let placesAutoComplete;
 
+// Times a data url is tried again while the server is loading, and the
+// longest wait between tries
+const FETCHRETRIES = 6;
+const MAXRETRYSECONDS = 60;
+let unavailableShown = false;
+
+/**
+ * Fetches a data url, waiting and trying again while the server says its
+ * data is still loading (503 with Retry-After). Each wait is twice the last,
+ * and after FETCHRETRIES tries the promise is rejected. Options are passed
+ * on to fetch, so requests with a body can wait too
+ */
+function fetchWhenReady(url, options, attempt = 0) {
+  return fetch(url, options).then((response) => {
+    if (response.status !== 503) {
+      return response;
+    }
+    if (attempt >= FETCHRETRIES) {
+      throw new Error(`${url} is unavailable`);
+    }
+    const seconds = Math.min(MAXRETRYSECONDS,
+        (parseInt(response.headers.get('Retry-After')) || 5) * 2 ** attempt);
+    return new Promise((resolve) => setTimeout(resolve, seconds * 1000))
+        .then(() => fetchWhenReady(url, options, attempt + 1));
+  });
+}
+
+/**
+ * Tells the user once that data could not be loaded, however many
+ * requests failed
+ */
+function showUnavailable(error) {
+  console.log(error);
+  if (!unavailableShown) {
+    unavailableShown = true;
+    alert('Some data could not be loaded. Please reload the page later.');
+  }
+}
+
 // When the page loads, call createMap
 window.onload = function() {
   createMap();
@@ -187,7 +226,9 @@ let lineChart;
 let lineData;
 let lineOptions;
 function drawGraph(lat, lng) {
-  fetch(`/timereport?lat=${lat}&lng=${lng}`)
+  // Daily changes are much shorter to send than running totals
+  fetchWhenReady(
+      `/timereport?lat=${lat}&lng=${lng}&encoding=delta&window=7`)
       .then((response) => response.json())
       .then((timeReport) => {
         document.getElementById('graphLocation').innerHTML =
@@ -195,8 +236,16 @@ function drawGraph(lat, lng) {
         lineData = new google.visualization.DataTable();
         lineData.addColumn('string', 'Date');
         lineData.addColumn('number', 'Confirmed Cases');
+        lineData.addColumn('number', 'New Cases (7-day average)');
+        const date = new Date(`${timeReport.start}T00:00:00Z`);
+        let cases = 0;
         for (let i = 0; i < timeReport.cases.length; ++i) {
-          lineData.addRow([timeReport.dates[i], timeReport.cases[i]]);
+          cases += timeReport.cases[i];
+          // Label dates as m/d/yy, like the data set does
+          const label = `${date.getUTCMonth() + 1}/${date.getUTCDate()}/` +
+              `${date.getUTCFullYear() % 100}`;
+          lineData.addRow([label, cases, timeReport.average[i]]);
+          date.setUTCDate(date.getUTCDate() + 1);
         }
         lineOptions = {
           'backgroundColor': 'transparent',
@@ -205,13 +254,24 @@ function drawGraph(lat, lng) {
           },
           'legend': {position: 'none'},
           'titlePosition': 'none',
-          'vAxis': {'title': 'Confirmed Cases'},
+          // New cases are far smaller than totals, so they get their own axis
+          'series': {
+            0: {'axis': 'total'},
+            1: {'axis': 'average'},
+          },
+          'axes': {
+            'y': {
+              'total': {'label': 'Confirmed Cases'},
+              'average': {'label': 'New Cases (7-day average)'},
+            },
+          },
         };
         lineChart =
             new google.charts.Line(document.getElementById('lineGraph'));
         lineChart.draw(
             lineData, google.charts.Line.convertOptions(lineOptions));
-      });
+      })
+      .catch(showUnavailable);
 }
 
 // Initialize global heat maps
@@ -243,7 +303,8 @@ function createMap() {
   initTopBar(map);
   initRelativeHeat();
   // Gets case data and creates heat maps
-  fetch('/report').then((response) => response.json()).then((reports) => {
+  const reportsResponse = fetchWhenReady('/report');
+  reportsResponse.then((response) => response.json()).then((reports) => {
     casesData = reports;
     reports.forEach((report) => {
       globalConfirmedHeatmapData.push({
@@ -285,9 +346,9 @@ function createMap() {
     displayCurrentStats(
         'Worldwide', globalActive, globalConfirmed, globalDeaths,
         globalRecovered, 0.0, 0.0);
-  });
+  }).catch(showUnavailable);
   // Populate recent heatmap data
-  fetch(`/timereport?lat=1000.0&lng=1000.0`)
+  fetchWhenReady(`/timereport?lat=1000.0&lng=1000.0`)
       .then((response) => response.json())
       .then((recentReports) => {
         recentReports.forEach((recentReport) => {
@@ -297,7 +358,8 @@ function createMap() {
             weight: recentReport.confirmed,
           });
         });
-      });
+      })
+      .catch(showUnavailable);
 
   geocoder = new google.maps.Geocoder();
   document.getElementById('search-submit').addEventListener('click', () => {
@@ -332,20 +394,15 @@ function createMap() {
     placeMarker(map, curLocation);
     lastSearchClicked = 'map';
   });
-  const CENTERSZOOM = 10;
   map.addListener('idle', function() {
     const relHeat = document.getElementById('relative-heat');
     if (relHeat.classList.contains('selected')) {
       changeRelativeHeat();
     }
-    if (map.getZoom() >= CENTERSZOOM) {
-      showTestCenters();
-    }
+    showTestCenters();
   });
   map.addListener('zoom_changed', function() {
-    if (map.getZoom() < CENTERSZOOM) {
-      hideTestCenters();
-    }
+    hideTestCenters();
   });
   const directionsService = new google.maps.DirectionsService();
   const directionsRenderer = new google.maps.DirectionsRenderer();
@@ -691,6 +748,8 @@ function changeRelativeHeat() {
 
 let markers = [];
 let activeWindow = null;
+// Zoom level from which individual test centers are shown instead of clusters
+const CENTERSZOOM = 10;
 // Show test centers visable on the map
 function showTestCenters() {
   // Hide previously shown and get map bounds
@@ -702,12 +761,18 @@ function showTestCenters() {
   const sg = southWest.lng();
   const nt = northEast.lat();
   const ng = northEast.lng();
+  const zoom = map.getZoom();
 
-  // Get all centers within screen view
-  fetch(`/testcenters?swlat=${st}&swlng=${sg}&nelat=${nt}&nelng=${ng}`)
+  // Get all centers within screen view, grouped into clusters when zoomed out
+  fetchWhenReady(`/testcenters?swlat=${st}&swlng=${sg}&nelat=${nt}` +
+      `&nelng=${ng}&zoom=${zoom}`)
       .then((response) => response.json())
       .then((centers) => {
         centers.forEach((center) => {
+          if (center.count !== undefined) {
+            showCluster(center);
+            return;
+          }
           const contentString = `<h2>${center.name}</h2>` +
               `<p>Address: ${center.addr}</p>` +
               `<p>Hours: ${center.hours}</p>` +
@@ -738,7 +803,28 @@ function showTestCenters() {
           });
           markers.push(marker);
         });
-      });
+      })
+      .catch(showUnavailable);
+}
+
+// Show a cluster of test centers that zooms in to its centers when clicked
+function showCluster(cluster) {
+  const marker = new google.maps.Marker({
+    position: new google.maps.LatLng(cluster.lat, cluster.lng),
+    map: map,
+    label: String(cluster.count),
+  });
+  marker.addListener('click', function() {
+    if (cluster.count == 1) {
+      map.setCenter(marker.getPosition());
+      map.setZoom(CENTERSZOOM);
+    } else {
+      map.fitBounds(new google.maps.LatLngBounds(
+          new google.maps.LatLng(cluster.south, cluster.west),
+          new google.maps.LatLng(cluster.north, cluster.east)));
+    }
+  });
+  markers.push(marker);
 }
 
 // Hide all test centers from the map
@@ -0,0 +1,165 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Past days served by /report?date=, archived from a local server
+ */
+@RunWith(JUnit4.class)
+public final class CasesDataServletHistoryTest {
+  private static final String REPORT =
+      "FIPS,Admin2,Province_State,Country_Region,Last_Update,Lat,Long_,Confirmed,"
+      + "Deaths,Recovered,Active,Combined_Key,Incident_Rate,Case_Fatality_Ratio\n"
+      + "6073,San Diego,California,US,2020-08-25,33.034,-116.736,20,1,0,19,"
+      + "\"San Diego, California, US\",5.5,5.0\n";
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  private HttpServer server;
+  private AtomicInteger downloads;
+  private AtomicBoolean upstreamDown;
+  private CasesDataServlet servlet;
+  private ByteArrayOutputStream output;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    downloads = new AtomicInteger();
+    upstreamDown = new AtomicBoolean();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      downloads.incrementAndGet();
+      if (upstreamDown.get()) {
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+        exchange.close();
+        return;
+      }
+      byte[] body = REPORT.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+
+    String root = "http://localhost:" + server.getAddress().getPort() + "/";
+    ReportHistory history = new ReportHistory(new DataFetcher(folder.getRoot().toPath()),
+        day -> root + ReportHistory.FILEDATE.format(day));
+    servlet = new CasesDataServlet();
+    servlet.initFromData(REPORT.getBytes(StandardCharsets.UTF_8), history);
+    Assert.assertTrue(servlet.awaitFirstLoad(1, TimeUnit.MINUTES));
+
+    output = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        output.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {}
+    });
+  }
+
+  @After
+  public void tearDown() {
+    servlet.destroy();
+    server.stop(0);
+  }
+
+  private void get(String date) throws IOException {
+    when(request.getParameter("date")).thenReturn(date);
+    servlet.doGet(request, response);
+  }
+
+  private JsonArray reports() throws IOException {
+    return new JsonParser().parse(output.toString("UTF-8")).getAsJsonArray();
+  }
+
+  @Test
+  public void servesArchivedReportsOfTheDay() throws IOException {
+    get("01-23-2020");
+    JsonArray reports = reports();
+    Assert.assertEquals(1, reports.size());
+    Assert.assertEquals(19, reports.get(0).getAsJsonObject().get("active").getAsInt());
+    get("01-23-2020");
+    Assert.assertEquals(1, downloads.get());
+  }
+
+  @Test
+  public void answers404ForDayBeforeTheFirstReport() throws IOException {
+    get("01-21-2020");
+    verify(response).sendError(eq(HttpServletResponse.SC_NOT_FOUND), anyString());
+    Assert.assertEquals(0, downloads.get());
+  }
+
+  @Test
+  public void failedDownloadIs503AndRetried() throws IOException {
+    upstreamDown.set(true);
+    get("01-23-2020");
+    verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+
+    upstreamDown.set(false);
+    get("01-23-2020");
+    verify(response, never()).sendError(eq(HttpServletResponse.SC_NOT_FOUND), anyString());
+    Assert.assertEquals(1, reports().size());
+    Assert.assertEquals(2, downloads.get());
+  }
+
+  @Test
+  public void rejectsMalformedDate() throws IOException {
+    get("2020-01-23");
+    verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Route queries against a small daily report, so they run without the network
+ */
+@RunWith(JUnit4.class)
+public final class CasesDataServletRouteTest {
+  // Two counties share a name; each sits on a point of the documented polyline example
+  private static final String REPORTS =
+      "FIPS,Admin2,Province_State,Country_Region,Last_Update,Lat,Long_,Confirmed,Deaths,"
+      + "Recovered,Active,Combined_Key,Incident_Rate,Case_Fatality_Ratio\n"
+      + "41067,Washington,Oregon,US,2020-08-01,38.5,-120.2,15,1,4,10,"
+      + "\"Washington, Oregon, US\",1.0,1.0\n"
+      + "49053,Washington,Utah,US,2020-08-01,40.7,-120.95,30,2,8,20,"
+      + "\"Washington, Utah, US\",1.0,1.0\n"
+      + ",,,Alphaland,2020-08-01,43.252,-126.453,40,3,7,30,Alphaland,1.0,1.0\n"
+      + ",,,Nowhere,2020-08-01,,,50,0,0,50,Nowhere,1.0,1.0\n";
+  private static final String ROUTE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+  private static final String FIRSTPOINT = "_p~iF~ps|U";
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  private CasesDataServlet servlet;
+  private StringWriter output;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    servlet = new CasesDataServlet();
+    servlet.initFromData(REPORTS.getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(servlet.awaitFirstLoad(1, TimeUnit.MINUTES));
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output, true));
+  }
+
+  private void post(String body, int contentLength) throws IOException {
+    ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    when(request.getContentLength()).thenReturn(contentLength);
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() {
+        return in.read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) {
+        return in.read(buffer, offset, length);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener listener) {}
+    });
+    servlet.doPost(request, response);
+  }
+
+  private void post(String body) throws IOException {
+    post(body, body.getBytes(StandardCharsets.UTF_8).length);
+  }
+
+  private JsonArray routeCases() {
+    return new JsonParser().parse(output.toString()).getAsJsonArray();
+  }
+
+  @Test
+  public void totalsActiveCasesAlongEachRoute() throws IOException {
+    post("{\"routes\": [\"" + ROUTE + "\", \"" + FIRSTPOINT + "\"]}");
+    JsonArray routes = routeCases();
+    Assert.assertEquals(2, routes.size());
+    JsonObject whole = routes.get(0).getAsJsonObject();
+    Assert.assertEquals(60, whole.get("active").getAsInt());
+    Assert.assertEquals(new JsonParser().parse(
+        "[\"Washington, Oregon, US\", \"Washington, Utah, US\", \"Alphaland\"]"),
+        whole.get("territories"));
+    Assert.assertEquals(10, routes.get(1).getAsJsonObject().get("active").getAsInt());
+  }
+
+  @Test
+  public void countsEachReportOncePerRoute() throws IOException {
+    // The same point three times
+    post("{\"routes\": [\"" + FIRSTPOINT + "????\"]}");
+    JsonObject route = routeCases().get(0).getAsJsonObject();
+    Assert.assertEquals(10, route.get("active").getAsInt());
+    Assert.assertEquals(1, route.get("territories").getAsJsonArray().size());
+  }
+
+  @Test
+  public void rejectsTooManyRoutes() throws IOException {
+    String[] routes = new String[11];
+    Arrays.fill(routes, "\"" + FIRSTPOINT + "\"");
+    post("{\"routes\": [" + String.join(",", routes) + "]}");
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid routes");
+  }
+
+  @Test
+  public void rejectsMalformedRoutes() throws IOException {
+    post("{\"routes\": [\"" + FIRSTPOINT);
+    post("{\"routes\": [\"_p~iF ps|U\"]}");
+    post("{\"routes\": [null]}");
+    verify(response, times(3))
+        .sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid routes");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void rejectsOversizedBodyWithoutContentLength() throws IOException {
+    char[] padding = new char[(1 << 20) + 1];
+    Arrays.fill(padding, ' ');
+    // A chunked request does not say how long it is
+    post("{\"routes\": []}" + new String(padding), -1);
+    verify(response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Too many routes");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void acceptsBodyWithoutContentLength() throws IOException {
+    post("{\"routes\": [\"" + FIRSTPOINT + "\"]}", -1);
+    verify(response, never()).sendError(anyInt(), anyString());
+    Assert.assertEquals(10, routeCases().get(0).getAsJsonObject().get("active").getAsInt());
+  }
+}
@@ -22,7 +22,9 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Assert;
@@ -44,16 +46,29 @@ public final class CasesDataServletTest {
   private PrintWriter writer;
 
   @Before
-  public void setUp() throws IOException {
+  public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
     servlet = new CasesDataServlet();
     servlet.init();
+    servlet.awaitFirstLoad(2, TimeUnit.MINUTES);
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
     when(response.getStatus()).thenReturn(HttpURLConnection.HTTP_OK);
     when(request.getMethod()).thenReturn("get");
     when(request.getProtocol()).thenReturn("http");
     when(response.getWriter()).thenReturn(writer);
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {}
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {}
+    });
     servlet.doGet(request, response);
   }
 
@@ -61,7 +76,7 @@ public final class CasesDataServletTest {
   public void servletBehavesCorrectly() throws IOException {
     verify(response).setContentType("application/json");
     verify(response).setCharacterEncoding("UTF-8");
-    verify(response).getWriter();
+    verify(response).getOutputStream();
     Assert.assertEquals(Collections.<String>emptyList(), response.getHeaderNames());
     Assert.assertEquals(200, response.getStatus());
   }
@@ -0,0 +1,79 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ClusterIndexTest {
+  private static final double[] LATS = {32.80, 32.81, 33.10, 40.70};
+  private static final double[] LNGS = {-117.20, -117.21, -116.90, -74.00};
+
+  private int total(List<ClusterIndex.Cluster> clusters) {
+    int count = 0;
+    for (ClusterIndex.Cluster cluster : clusters) {
+      count += cluster.getCount();
+    }
+    return count;
+  }
+
+  @Test
+  public void coarseLevelMergesNearbyCenters() {
+    ClusterIndex index = new ClusterIndex(LATS, LNGS, 10);
+    List<ClusterIndex.Cluster> clusters =
+        index.query(3, -90.0, -180.0, 90.0, 180.0, Integer.MAX_VALUE);
+    Assert.assertEquals(2, clusters.size());
+    Assert.assertEquals(4, total(clusters));
+    for (ClusterIndex.Cluster cluster : clusters) {
+      if (cluster.getCount() == 3) {
+        Assert.assertEquals((32.80 + 32.81 + 33.10) / 3, cluster.getLat(), 1e-9);
+        Assert.assertEquals((-117.20 - 117.21 - 116.90) / 3, cluster.getLng(), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void finestLevelSeparatesDistantCenters() {
+    ClusterIndex index = new ClusterIndex(LATS, LNGS, 10);
+    Assert.assertEquals(2, index.query(9, 30.0, -119.0, 36.0, -113.0, Integer.MAX_VALUE).size());
+    Assert.assertEquals(2, index.query(20, 30.0, -119.0, 36.0, -113.0, Integer.MAX_VALUE).size());
+  }
+
+  @Test
+  public void everyLevelCountsEveryCenter() {
+    Random random = new Random(168);
+    int size = 2000;
+    double[] lats = new double[size];
+    double[] lngs = new double[size];
+    for (int i = 0; i < size; ++i) {
+      lats[i] = random.nextDouble() * 180 - 90;
+      lngs[i] = random.nextDouble() * 360 - 180;
+    }
+    ClusterIndex index = new ClusterIndex(lats, lngs, 10);
+    int previous = 0;
+    for (int zoom = 0; zoom < index.levels(); ++zoom) {
+      List<ClusterIndex.Cluster> clusters =
+          index.query(zoom, -91.0, -180.0, 91.0, 180.0, Integer.MAX_VALUE);
+      Assert.assertEquals(size, total(clusters));
+      Assert.assertTrue(clusters.size() >= previous);
+      previous = clusters.size();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CsvReaderTest {
+  private CsvReader reader(String text) {
+    return new CsvReader(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void splitsRecordsAndFields() {
+    CsvReader csv = reader("a,b,,d\r\n1,2\n");
+    Assert.assertTrue(csv.next());
+    Assert.assertEquals(4, csv.fieldCount());
+    Assert.assertEquals("b", csv.getString(1));
+    Assert.assertTrue(csv.isEmpty(2));
+    Assert.assertEquals("d", csv.getString(3));
+    Assert.assertTrue(csv.next());
+    Assert.assertEquals(2, csv.fieldCount());
+    Assert.assertTrue(csv.isEmpty(5));
+    Assert.assertEquals("", csv.getString(5));
+    Assert.assertFalse(csv.next());
+  }
+
+  @Test
+  public void handlesQuotedFields() {
+    CsvReader csv = reader(",\"Korea, South\",35.9,\"say \"\"hi\"\"\",\"two\nlines\"\nnext");
+    Assert.assertTrue(csv.next());
+    Assert.assertEquals(5, csv.fieldCount());
+    Assert.assertEquals("Korea, South", csv.getString(1));
+    Assert.assertEquals(35.9, csv.getDouble(2), 0.0);
+    Assert.assertEquals("say \"hi\"", csv.getString(3));
+    Assert.assertEquals("two\nlines", csv.getString(4));
+    Assert.assertTrue(csv.next());
+    Assert.assertEquals("next", csv.getString(0));
+  }
+
+  @Test
+  public void skipsByteOrderMark() {
+    CsvReader csv = reader("\uFEFFFIPS,Admin2");
+    Assert.assertTrue(csv.next());
+    Assert.assertTrue(csv.fieldEquals(0, "FIPS"));
+  }
+
+  @Test
+  public void comparesFieldsWithoutStrings() {
+    CsvReader csv = reader("US,Saint Kitts and Nevis");
+    csv.next();
+    Assert.assertTrue(csv.fieldEquals(0, "US"));
+    Assert.assertFalse(csv.fieldEquals(1, "US"));
+    Assert.assertTrue(csv.fieldContains(0, "US"));
+    Assert.assertTrue(csv.fieldContains(1, "Kitts"));
+    Assert.assertFalse(csv.fieldContains(1, "US"));
+  }
+
+  @Test
+  public void parsesIntegers() {
+    CsvReader csv = reader("0,-12,+7,2147483647,-2147483648,12.0,2147483648");
+    csv.next();
+    Assert.assertEquals(0, csv.getInt(0));
+    Assert.assertEquals(-12, csv.getInt(1));
+    Assert.assertEquals(7, csv.getInt(2));
+    Assert.assertEquals(Integer.MAX_VALUE, csv.getInt(3));
+    Assert.assertEquals(Integer.MIN_VALUE, csv.getInt(4));
+    Assert.assertEquals(12, csv.getInt(5));
+    try {
+      csv.getInt(6);
+      Assert.fail("Expected overflow");
+    } catch (NumberFormatException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void parsesDoublesLikeDoubleParseDouble() {
+    Random random = new Random(168);
+    StringBuilder line = new StringBuilder("0,-0.0,1.5e3,.5,33.03484597,-116.7365326");
+    for (int i = 0; i < 1000; ++i) {
+      line.append(',').append(random.nextDouble() * 360 - 180);
+      line.append(',').append(String.format(Locale.ROOT, "%.4f", random.nextDouble() * 100000));
+    }
+    CsvReader csv = reader(line.toString());
+    csv.next();
+    String[] fields = line.toString().split(",");
+    for (int i = 0; i < fields.length; ++i) {
+      Assert.assertEquals(fields[i], Double.parseDouble(fields[i]), csv.getDouble(i), 0.0);
+    }
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void rejectsEmptyNumbers() {
+    CsvReader csv = reader("1,,3");
+    csv.next();
+    csv.getDouble(1);
+  }
+
+  @Test
+  public void readsOnlyTheGivenRange() {
+    byte[] data = "a\nb\nc\n".getBytes(StandardCharsets.UTF_8);
+    CsvReader csv = new CsvReader(data, 2, 4);
+    Assert.assertTrue(csv.next());
+    Assert.assertEquals("b", csv.getString(0));
+    Assert.assertEquals(4, csv.position());
+    Assert.assertFalse(csv.next());
+  }
+
+  @Test
+  public void findsRecordStartsOutsideQuotes() {
+    byte[] data = "a,\"x\ny\"\nb\nc".getBytes(StandardCharsets.UTF_8);
+    // The line break inside quotes is not a record boundary
+    Assert.assertEquals(8, CsvReader.nextRecordStart(data, 0, 1, data.length));
+    Assert.assertEquals(10, CsvReader.nextRecordStart(data, 8, 9, data.length));
+    Assert.assertEquals(data.length, CsvReader.nextRecordStart(data, 10, 11, data.length));
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DataFetcherTest {
+  private static final String BODY = "Province/State,Country/Region,Lat,Long,1/22/20\n";
+  private static final String ETAG = "\"v1\"";
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  private HttpServer server;
+  private String url;
+  private AtomicInteger downloads;
+  private AtomicInteger notModified;
+  private DataFetcher fetcher;
+
+  @Before
+  public void setUp() throws IOException {
+    downloads = new AtomicInteger();
+    notModified = new AtomicInteger();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/data.csv", exchange -> {
+      if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModified.incrementAndGet();
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+      } else {
+        downloads.incrementAndGet();
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+      exchange.close();
+    });
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/data.csv";
+    fetcher = new DataFetcher(folder.getRoot().toPath());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void downloadsOnceThenRevalidates() throws IOException {
+    Assert.assertEquals(BODY, read(fetcher.fetch(url)));
+    Assert.assertEquals(BODY, read(fetcher.fetch(url)));
+    Assert.assertEquals(1, downloads.get());
+    Assert.assertEquals(1, notModified.get());
+  }
+
+  @Test
+  public void servesCachedCopyWhenUpstreamIsDown() throws IOException {
+    fetcher.fetch(url);
+    server.stop(0);
+    Assert.assertEquals(BODY, read(fetcher.fetch(url)));
+  }
+
+  @Test
+  public void returnsNullWithoutNetworkOrCache() {
+    server.stop(0);
+    Assert.assertNull(fetcher.fetch(url));
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class EncodedPayloadTest {
+  private static final String BODY = "[{\"lat\":34.30828379,\"lng\":-118.228241,\"confirmed\":5}]";
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  private ByteArrayOutputStream outputStream;
+  private EncodedPayload payload;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    payload = new EncodedPayload(BODY);
+    outputStream = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        outputStream.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {}
+    });
+  }
+
+  private String gunzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+      byte[] buffer = new byte[256];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+    }
+    return out.toString("UTF-8");
+  }
+
+  @Test
+  public void writesIdentityWithoutAcceptEncoding() throws IOException {
+    payload.writeTo(request, response);
+    Assert.assertEquals(BODY, outputStream.toString("UTF-8"));
+    verify(response, never()).setHeader("Content-Encoding", "gzip");
+    verify(response).setContentLength(BODY.length());
+  }
+
+  @Test
+  public void writesGzipWhenAccepted() throws IOException {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate, br");
+    payload.writeTo(request, response);
+    verify(response).setHeader("Content-Encoding", "gzip");
+    Assert.assertEquals(BODY, gunzip(outputStream.toByteArray()));
+  }
+
+  @Test
+  public void returnsNotModifiedForCurrentTag() throws IOException {
+    ArgumentCaptor<String> tag = ArgumentCaptor.forClass(String.class);
+    payload.writeTo(request, response);
+    verify(response).setHeader(eq("ETag"), tag.capture());
+
+    when(request.getHeader("If-None-Match")).thenReturn("\"stale\", " + tag.getValue());
+    outputStream.reset();
+    payload.writeTo(request, response);
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals(0, outputStream.size());
+  }
+
+  @Test
+  public void tagsDependOnBodyAndEncoding() throws IOException {
+    ArgumentCaptor<String> tags = ArgumentCaptor.forClass(String.class);
+    payload.writeTo(request, response);
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+    payload.writeTo(request, response);
+    new EncodedPayload(BODY + " ").writeTo(request, response);
+    verify(response, times(3)).setHeader(eq("ETag"), tags.capture());
+    Assert.assertEquals(3, new HashSet<String>(tags.getAllValues()).size());
+    verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  @Test
+  public void parsesIfNoneMatch() {
+    Assert.assertTrue(EncodedPayload.matches("\"a\"", "\"a\""));
+    Assert.assertTrue(EncodedPayload.matches("\"b\", W/\"a\"", "\"a\""));
+    Assert.assertTrue(EncodedPayload.matches("*", "\"a\""));
+    Assert.assertFalse(EncodedPayload.matches(null, "\"a\""));
+    Assert.assertFalse(EncodedPayload.matches("\"b\"", "\"a\""));
+  }
+
+  @Test
+  public void parsesAcceptEncoding() {
+    Assert.assertTrue(EncodedPayload.acceptsGzip("gzip"));
+    Assert.assertTrue(EncodedPayload.acceptsGzip("deflate, GZIP;q=0.5"));
+    Assert.assertTrue(EncodedPayload.acceptsGzip("*"));
+    Assert.assertFalse(EncodedPayload.acceptsGzip(null));
+    Assert.assertFalse(EncodedPayload.acceptsGzip("identity"));
+    Assert.assertFalse(EncodedPayload.acceptsGzip("gzip;q=0"));
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GridIndexTest {
+  private static final double[] LATS = {32.8, 33.1, 40.7, -17.7, 52.0, 0.0};
+  private static final double[] LNGS = {-117.2, -116.9, -74.0, 178.0, -179.5, 0.0};
+
+  private int[] sorted(int[] indices) {
+    Arrays.sort(indices);
+    return indices;
+  }
+
+  @Test
+  public void findsLocationsInsideBox() {
+    GridIndex index = new GridIndex(LATS, LNGS, 0.5);
+    Assert.assertArrayEquals(
+        new int[] {0, 1}, sorted(index.query(30.0, -119.0, 36.0, -113.0, Integer.MAX_VALUE)));
+    Assert.assertArrayEquals(new int[0], index.query(0.0, 0.0, 0.0, 0.0, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void handlesBoxAcrossAntimeridian() {
+    GridIndex index = new GridIndex(LATS, LNGS, 0.5);
+    Assert.assertArrayEquals(
+        new int[] {3, 4}, sorted(index.query(-60.0, 170.0, 60.0, -170.0, Integer.MAX_VALUE)));
+    Assert.assertArrayEquals(
+        new int[] {3, 4}, sorted(index.query(-60.0, 170.0, 60.0, 190.0, Integer.MAX_VALUE)));
+  }
+
+  @Test
+  public void stopsAtLimit() {
+    GridIndex index = new GridIndex(LATS, LNGS, 0.5);
+    Assert.assertEquals(3, index.query(-90.0, -180.0, 90.0, 180.0, 3).length);
+    Assert.assertEquals(6, index.query(-90.0, -180.0, 90.0, 180.0, 100).length);
+    Assert.assertEquals(0, index.query(-90.0, -180.0, 90.0, 180.0, 0).length);
+  }
+
+  @Test
+  public void matchesLinearScan() {
+    Random random = new Random(168);
+    int size = 5000;
+    double[] lats = new double[size];
+    double[] lngs = new double[size];
+    for (int i = 0; i < size; ++i) {
+      lats[i] = random.nextDouble() * 180 - 90;
+      lngs[i] = random.nextDouble() * 360 - 180;
+    }
+    GridIndex index = new GridIndex(lats, lngs, 1.0);
+    for (int query = 0; query < 200; ++query) {
+      double south = random.nextDouble() * 180 - 90;
+      double north = south + random.nextDouble() * 30;
+      double west = random.nextDouble() * 360 - 180;
+      double east = random.nextDouble() * 360 - 180;
+      int[] expected = new int[size];
+      int count = 0;
+      for (int i = 0; i < size; ++i) {
+        boolean inLng = west <= east ? lngs[i] > west && lngs[i] < east
+                                     : lngs[i] > west || lngs[i] < east;
+        if (lats[i] > south && lats[i] < north && inLng) {
+          expected[count++] = i;
+        }
+      }
+      Assert.assertArrayEquals(Arrays.copyOf(expected, count),
+          sorted(index.query(south, west, north, east, Integer.MAX_VALUE)));
+    }
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LinkIdsTest {
+  @Test
+  public void encodesInBase62() {
+    Assert.assertEquals("a", LinkIds.encode(10));
+    Assert.assertEquals("Z", LinkIds.encode(61));
+    Assert.assertEquals("10", LinkIds.encode(62));
+    Assert.assertEquals("aZl8N0y58M7", LinkIds.encode(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void parsesBothFormats() {
+    Assert.assertEquals(10, LinkIds.parse("10"));
+    Assert.assertEquals(36, LinkIds.parse("A"));
+    for (long id : new long[] {10, 63, 5629499534213120L, Long.MAX_VALUE}) {
+      if (LinkIds.isUsable(id)) {
+        Assert.assertEquals(id, LinkIds.parse(LinkIds.encode(id)));
+      }
+    }
+  }
+
+  @Test
+  public void skipsIdsThatReadAsDecimal() {
+    Assert.assertFalse(LinkIds.isUsable(0));
+    Assert.assertFalse(LinkIds.isUsable(9));
+    Assert.assertFalse(LinkIds.isUsable(62));
+    Assert.assertTrue(LinkIds.isUsable(10));
+  }
+
+  @Test
+  public void rejectsInvalidIds() {
+    for (String linkId : new String[] {"", "a-b", "aZl8N0y58M8", "zzzzzzzzzzzz"}) {
+      try {
+        LinkIds.parse(linkId);
+        Assert.fail("Expected " + linkId + " to be rejected");
+      } catch (NumberFormatException e) {
+        // Expected
+      }
+    }
+  }
+}
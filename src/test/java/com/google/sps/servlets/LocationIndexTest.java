@@ -0,0 +1,118 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LocationIndexTest {
+  private static final int SIZE = 2000;
+  private double[] lats;
+  private double[] lngs;
+  private boolean[] preferred;
+  private LocationIndex index;
+
+  @Before
+  public void setUp() {
+    Random random = new Random(168);
+    lats = new double[SIZE];
+    lngs = new double[SIZE];
+    preferred = new boolean[SIZE];
+    for (int i = 0; i < SIZE; ++i) {
+      lats[i] = random.nextDouble() * 180 - 90;
+      lngs[i] = random.nextDouble() * 360 - 180;
+      preferred[i] = random.nextBoolean();
+    }
+    index = new LocationIndex(lats, lngs, preferred);
+  }
+
+  /**
+   * Closest location by linear scan, the way the servlet used to find it
+   */
+  private int scanManhattan(double lat, double lng) {
+    int best = -1;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < lats.length; ++i) {
+      double distance = Math.abs(lats[i] - lat) + Math.abs(lngs[i] - lng);
+      if (distance < bestDistance) {
+        best = i;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+
+  private double greatCircle(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double a = Math.pow(Math.sin(dLat / 2), 2)
+        + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+            * Math.pow(Math.sin(dLng / 2), 2);
+    return 2 * Math.asin(Math.sqrt(a));
+  }
+
+  @Test
+  public void manhattanMatchesLinearScan() {
+    Random random = new Random(2020);
+    for (int i = 0; i < 500; ++i) {
+      double lat = random.nextDouble() * 180 - 90;
+      double lng = random.nextDouble() * 360 - 180;
+      Assert.assertEquals(
+          scanManhattan(lat, lng), index.nearest(lat, lng, LocationIndex.Metric.MANHATTAN));
+    }
+  }
+
+  @Test
+  public void greatCircleMatchesLinearScan() {
+    Random random = new Random(2021);
+    for (int i = 0; i < 500; ++i) {
+      double lat = random.nextDouble() * 180 - 90;
+      double lng = random.nextDouble() * 360 - 180;
+      int found = index.nearest(lat, lng, LocationIndex.Metric.GREAT_CIRCLE);
+      double best = Double.POSITIVE_INFINITY;
+      for (int j = 0; j < SIZE; ++j) {
+        best = Math.min(best, greatCircle(lat, lng, lats[j], lngs[j]));
+      }
+      Assert.assertEquals(best, greatCircle(lat, lng, lats[found], lngs[found]), 1e-9);
+    }
+  }
+
+  @Test
+  public void greatCircleWrapsAroundAntimeridian() {
+    LocationIndex wrapped = new LocationIndex(
+        new double[] {0.0, 0.0}, new double[] {179.5, 170.0}, new boolean[] {false, false});
+    Assert.assertEquals(1, wrapped.nearest(0.0, -179.5, LocationIndex.Metric.MANHATTAN));
+    Assert.assertEquals(0, wrapped.nearest(0.0, -179.5, LocationIndex.Metric.GREAT_CIRCLE));
+  }
+
+  @Test
+  public void tiesPreferPreferredLocations() {
+    LocationIndex tied = new LocationIndex(new double[] {1.0, -1.0, 0.0},
+        new double[] {0.0, 0.0, 2.0}, new boolean[] {false, true, false});
+    Assert.assertEquals(1, tied.nearest(0.0, 0.0, LocationIndex.Metric.MANHATTAN));
+    Assert.assertEquals(1, tied.nearest(0.0, 0.0, LocationIndex.Metric.GREAT_CIRCLE));
+  }
+
+  @Test
+  public void emptyIndexReturnsNoLocation() {
+    LocationIndex empty = new LocationIndex(new double[0], new double[0], new boolean[0]);
+    Assert.assertEquals(-1, empty.nearest(10.0, 10.0, LocationIndex.Metric.MANHATTAN));
+  }
+}
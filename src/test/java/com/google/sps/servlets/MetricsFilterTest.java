@@ -0,0 +1,121 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class MetricsFilterTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  @Mock private FilterChain chain;
+  private final MetricsFilter filter = new MetricsFilter();
+  private final AtomicInteger status = new AtomicInteger(HttpServletResponse.SC_OK);
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    Metrics.reset();
+    when(request.getServletPath()).thenReturn("/report");
+    // The response remembers the status an error sets, like a container's does
+    when(response.getStatus()).thenAnswer(invocation -> status.get());
+    doAnswer(invocation -> {
+      status.set(invocation.getArgument(0));
+      return null;
+    })
+        .when(response)
+        .sendError(anyInt(), anyString());
+  }
+
+  @After
+  public void tearDown() {
+    Metrics.reset();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> endpoint(String path) {
+    Map<String, Object> endpoints = (Map<String, Object>) Metrics.snapshot().get("endpoints");
+    return (Map<String, Object>) endpoints.get(path);
+  }
+
+  @Test
+  public void recordsNormalResponse() throws IOException, ServletException {
+    filter.doFilter(request, response, chain);
+    verify(chain).doFilter(request, response);
+    Map<String, Object> report = endpoint("/report");
+    Assert.assertEquals(1L, report.get("requests"));
+    Assert.assertEquals(0L, report.get("errors"));
+  }
+
+  @Test
+  public void recordsServerErrorSentByServlet() throws IOException, ServletException {
+    doAnswer(invocation -> {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "report is loading");
+      return null;
+    })
+        .when(chain)
+        .doFilter(request, response);
+    filter.doFilter(request, response, chain);
+    filter.doFilter(request, response, chain);
+    Map<String, Object> report = endpoint("/report");
+    Assert.assertEquals(2L, report.get("requests"));
+    Assert.assertEquals(2L, report.get("errors"));
+  }
+
+  @Test
+  public void clientErrorIsNotServerError() throws IOException, ServletException {
+    doAnswer(invocation -> {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid from, to or step");
+      return null;
+    })
+        .when(chain)
+        .doFilter(request, response);
+    filter.doFilter(request, response, chain);
+    Assert.assertEquals(0L, endpoint("/report").get("errors"));
+  }
+
+  @Test
+  public void recordsRequestThatThrows() throws IOException, ServletException {
+    doThrow(new IOException("closed")).when(chain).doFilter(request, response);
+    try {
+      filter.doFilter(request, response, chain);
+      Assert.fail("Expected the exception to propagate");
+    } catch (IOException e) {
+      // Expected
+    }
+    Assert.assertEquals(1L, endpoint("/report").get("errors"));
+  }
+}
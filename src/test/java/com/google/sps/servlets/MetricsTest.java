@@ -0,0 +1,102 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class MetricsTest {
+  @Before
+  @After
+  public void reset() {
+    Metrics.reset();
+  }
+
+  @Test
+  public void bucketsKeepRelativePrecision() {
+    for (long micros = 0; micros < 1000000; micros += 7) {
+      long highest = LatencyHistogram.highestInBucket(LatencyHistogram.bucket(micros));
+      Assert.assertTrue(highest >= micros);
+      Assert.assertTrue(highest - micros <= micros / 16);
+    }
+  }
+
+  @Test
+  public void histogramReportsQuantiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int millis = 1; millis <= 1000; ++millis) {
+      histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+    Assert.assertEquals(1000, histogram.count());
+    Assert.assertEquals(500000, histogram.quantileMicros(0.5), 500000 / 16);
+    Assert.assertEquals(990000, histogram.quantileMicros(0.99), 990000 / 16);
+    Assert.assertEquals(1000000, histogram.quantileMicros(1.0));
+    Assert.assertEquals(0, new LatencyHistogram().quantileMicros(0.5));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void snapshotHoldsRequestsAndPhases() {
+    Metrics.recordRequest("/report", TimeUnit.MILLISECONDS.toNanos(3), false);
+    Metrics.recordRequest("/report", TimeUnit.MILLISECONDS.toNanos(5), true);
+    Metrics.addPhase("report", "parse", TimeUnit.MILLISECONDS.toNanos(40));
+    Map<String, Object> snapshot = Metrics.snapshot();
+    Map<String, Object> report =
+        (Map<String, Object>) ((Map<String, Object>) snapshot.get("endpoints")).get("/report");
+    Assert.assertEquals(2L, report.get("requests"));
+    Assert.assertEquals(1L, report.get("errors"));
+    Map<String, Object> parse =
+        (Map<String, Object>) ((Map<String, Object>) snapshot.get("phases")).get("report/parse");
+    Assert.assertEquals(40.0, (Double) parse.get("lastMillis"), 0.0);
+  }
+
+  @Test
+  public void writesPrometheusText() {
+    Metrics.recordRequest("/link", TimeUnit.MILLISECONDS.toNanos(2), false);
+    Metrics.addPhase("testcenters", "download", TimeUnit.SECONDS.toNanos(2));
+    String text = Metrics.prometheus();
+    Assert.assertTrue(text.contains("videomap_requests_total{endpoint=\"/link\"} 1\n"));
+    Assert.assertTrue(text.contains("videomap_request_errors_total{endpoint=\"/link\"} 0\n"));
+    Assert.assertTrue(text.contains(
+        "videomap_request_duration_seconds_count{endpoint=\"/link\"} 1\n"));
+    Assert.assertTrue(text.contains(
+        "videomap_load_phase_last_seconds{dataset=\"testcenters\",phase=\"download\"} 2.000000\n"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void reportsRegisteredCaches() {
+    ReadThroughCache<Integer, String> cache =
+        new ReadThroughCache<Integer, String>(10, 0, key -> "value " + key);
+    Metrics.registerCache("link", cache);
+    cache.get(1);
+    cache.get(1);
+    Map<String, Object> caches = (Map<String, Object>) Metrics.snapshot().get("caches");
+    Map<String, Object> link = (Map<String, Object>) caches.get("link");
+    Assert.assertEquals(1L, link.get("hits"));
+    Assert.assertEquals(1L, link.get("misses"));
+    Assert.assertEquals(1L, link.get("loads"));
+    String text = Metrics.prometheus();
+    Assert.assertTrue(text.contains("videomap_cache_hits_total{cache=\"link\"} 1\n"));
+    Assert.assertTrue(text.contains("videomap_cache_loads_total{cache=\"link\"} 1\n"));
+  }
+}
@@ -0,0 +1,272 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Batch lookups against small time series, so they run without the network
+ */
+@RunWith(JUnit4.class)
+public final class OverTimeCasesServletBatchTest {
+  private static final String US =
+      "UID,iso2,iso3,code3,FIPS,Admin2,Province_State,Country_Region,Lat,Long_,Combined_Key,"
+      + "1/22/20,1/23/20,1/24/20\n"
+      + "84006073,US,USA,840,6073,San Diego,California,US,32.7,-117.1,"
+      + "\"San Diego, California, US\",1,3,6\n"
+      + "84006037,US,USA,840,6037,Los Angeles,California,US,34.3,-118.2,"
+      + "\"Los Angeles, California, US\",2,5,9\n";
+  private static final String GLOBAL = "Province/State,Country/Region,Lat,Long,"
+      + "1/22/20,1/23/20,1/24/20\n"
+      + ",Italy,41.9,12.6,10,20,40\n";
+  private static final String SANDIEGO = "{\"lat\": 32.7, \"lng\": -117.1}";
+  private static final String ITALY = "{\"lat\": 41.9, \"lng\": 12.6}";
+  private static final String NEARSANDIEGO = "{\"lat\": 32.8, \"lng\": -117.0}";
+  private static final String LOSANGELES = "{\"lat\": 34.3, \"lng\": -118.2}";
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+  private OverTimeCasesServlet servlet;
+  private StringWriter output;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    servlet = new OverTimeCasesServlet();
+    servlet.initFromData(
+        US.getBytes(StandardCharsets.UTF_8), GLOBAL.getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(servlet.awaitFirstLoad(1, TimeUnit.MINUTES));
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output, true));
+  }
+
+  private void post(String body, int contentLength) throws IOException {
+    ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    when(request.getContentLength()).thenReturn(contentLength);
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() {
+        return in.read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) {
+        return in.read(buffer, offset, length);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener listener) {}
+    });
+    servlet.doPost(request, response);
+  }
+
+  private void post(String body) throws IOException {
+    post(body, body.getBytes(StandardCharsets.UTF_8).length);
+  }
+
+  private static String points(String... points) {
+    return "{\"points\": [" + String.join(",", points) + "]}";
+  }
+
+  private JsonObject batch() {
+    return new JsonParser().parse(output.toString()).getAsJsonObject();
+  }
+
+  private void assertLocations(JsonArray series, String... locations) {
+    Assert.assertEquals(locations.length, series.size());
+    for (int i = 0; i < locations.length; ++i) {
+      Assert.assertEquals(
+          locations[i], series.get(i).getAsJsonObject().get("location").getAsString());
+    }
+  }
+
+  @Test
+  public void writesEachLocationOnceAndMapsPointsToIt() throws IOException {
+    post(points(SANDIEGO, ITALY, NEARSANDIEGO, LOSANGELES));
+    JsonObject batch = batch();
+    assertLocations(batch.getAsJsonArray("series"), "San Diego", "Italy", "Los Angeles");
+    Assert.assertEquals(new JsonParser().parse("[0, 1, 0, 2]"), batch.get("points"));
+    JsonObject sanDiego = batch.getAsJsonArray("series").get(0).getAsJsonObject();
+    Assert.assertEquals(new JsonParser().parse("[1, 3, 6]"), sanDiego.get("cases"));
+  }
+
+  @Test
+  public void seriesTakeTheOptionsOfTheRequest() throws IOException {
+    when(request.getParameter("encoding")).thenReturn("delta");
+    post(points(ITALY));
+    JsonObject italy = batch().getAsJsonArray("series").get(0).getAsJsonObject();
+    Assert.assertEquals(new JsonParser().parse("[10, 10, 20]"), italy.get("cases"));
+  }
+
+  @Test
+  public void monthlyWindowsEndingOnDifferentDaysAreNotShared() throws Exception {
+    // 1/22/20 to 3/31/20, with day i having i cases in San Diego
+    StringBuilder us = new StringBuilder(US.substring(0, US.indexOf("1/22/20")));
+    StringBuilder sanDiego = new StringBuilder(
+        "84006073,US,USA,840,6073,San Diego,California,US,32.7,-117.1,\"San Diego, CA, US\"");
+    StringBuilder global = new StringBuilder("Province/State,Country/Region,Lat,Long");
+    for (LocalDate day = LocalDate.of(2020, 1, 22); day.getMonthValue() < 4;
+         day = day.plusDays(1)) {
+      String date = day.format(SeriesWindow.CSSEDATE);
+      us.append(day.getDayOfYear() == 22 ? "" : ",").append(date);
+      global.append(",").append(date);
+      sanDiego.append(",").append(day.getDayOfYear() - 22);
+    }
+    servlet = new OverTimeCasesServlet();
+    servlet.initFromData((us + "\n" + sanDiego + "\n").getBytes(StandardCharsets.UTF_8),
+        (global + "\n").getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(servlet.awaitFirstLoad(1, TimeUnit.MINUTES));
+    when(request.getParameter("from")).thenReturn("2020-02-15");
+    when(request.getParameter("step")).thenReturn("monthly");
+
+    when(request.getParameter("to")).thenReturn("2020-03-29");
+    post(points(SANDIEGO));
+    JsonObject toMarch29 = batch().getAsJsonArray("series").get(0).getAsJsonObject();
+    output.getBuffer().setLength(0);
+    when(request.getParameter("to")).thenReturn("2020-03-31");
+    post(points(SANDIEGO));
+    JsonObject toMarch31 = batch().getAsJsonArray("series").get(0).getAsJsonObject();
+
+    Assert.assertEquals(new JsonParser().parse("[\"2/29/20\", \"3/29/20\"]"),
+        toMarch29.get("dates"));
+    Assert.assertEquals(new JsonParser().parse("[38, 67]"), toMarch29.get("cases"));
+    Assert.assertEquals(new JsonParser().parse("[\"2/29/20\", \"3/31/20\"]"),
+        toMarch31.get("dates"));
+    Assert.assertEquals(new JsonParser().parse("[38, 69]"), toMarch31.get("cases"));
+  }
+
+  @Test
+  public void acceptsUpToMaximumPoints() throws IOException {
+    String[] points = new String[100];
+    Arrays.fill(points, SANDIEGO);
+    post(points(points));
+    verify(response, never()).sendError(anyInt(), anyString());
+    Assert.assertEquals(100, batch().getAsJsonArray("points").size());
+  }
+
+  @Test
+  public void rejectsMoreThanMaximumPoints() throws IOException {
+    String[] points = new String[101];
+    Arrays.fill(points, SANDIEGO);
+    post(points(points));
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected up to 100 points");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void rejectsMalformedJson() throws IOException {
+    post("{\"points\": [" + SANDIEGO);
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void rejectsPointsWithoutCoordinates() throws IOException {
+    post(points("{\"lat\": 32.7}"));
+    post("{}");
+    verify(response, times(2))
+        .sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+  }
+
+  @Test
+  public void rejectsPointsThatAreNotFinite() throws IOException {
+    // Gson reads NaN and Infinity leniently
+    post(points(SANDIEGO, "{\"lat\": NaN, \"lng\": -117.1}"));
+    post(points("{\"lat\": 32.7, \"lng\": Infinity}"));
+    verify(response, times(2)).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void rejectsGetWithCoordinatesThatAreNotFiniteNumbers() throws IOException {
+    when(request.getParameter("lat")).thenReturn("north");
+    when(request.getParameter("lng")).thenReturn("-117.1");
+    servlet.doGet(request, response);
+    when(request.getParameter("lat")).thenReturn("NaN");
+    servlet.doGet(request, response);
+    verify(response, times(2)).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid lat or lng");
+    when(request.getParameterValues("lat")).thenReturn(new String[] {"32.7", "Infinity"});
+    when(request.getParameterValues("lng")).thenReturn(new String[] {"-117.1", "12.6"});
+    servlet.doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid points");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void rejectsOversizedBodyWithoutContentLength() throws IOException {
+    char[] padding = new char[64 * 1024];
+    Arrays.fill(padding, ' ');
+    // A chunked request does not say how long it is
+    post(points(SANDIEGO) + new String(padding), -1);
+    verify(response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Too many points");
+    Assert.assertEquals("", output.toString());
+  }
+
+  @Test
+  public void repeatedCoordinatesInGetAnswerLikePost() throws IOException {
+    when(request.getParameterValues("lat")).thenReturn(new String[] {"32.7", "41.9", "32.8"});
+    when(request.getParameterValues("lng")).thenReturn(new String[] {"-117.1", "12.6", "-117.0"});
+    servlet.doGet(request, response);
+    JsonObject batch = batch();
+    assertLocations(batch.getAsJsonArray("series"), "San Diego", "Italy");
+    Assert.assertEquals(new JsonParser().parse("[0, 1, 0]"), batch.get("points"));
+  }
+
+  @Test
+  public void rejectsGetWithUnmatchedCoordinates() throws IOException {
+    when(request.getParameterValues("lat")).thenReturn(new String[] {"32.7", "41.9"});
+    when(request.getParameterValues("lng")).thenReturn(new String[] {"-117.1"});
+    servlet.doGet(request, response);
+    verify(response).sendError(
+        HttpServletResponse.SC_BAD_REQUEST, "Every lat needs a matching lng");
+  }
+}
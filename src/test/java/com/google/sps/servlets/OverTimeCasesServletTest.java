@@ -14,15 +14,19 @@
 
 package com.google.sps.servlets;
 
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Assert;
@@ -30,6 +34,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -43,12 +48,14 @@ public final class OverTimeCasesServletTest {
   private String usTimeReportsJson;
   private StringWriter stringWriter;
   private PrintWriter writer;
+  private ByteArrayOutputStream outputStream;
 
   @Before
-  public void setUp() throws IOException {
+  public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
     servlet = new OverTimeCasesServlet();
     servlet.init();
+    servlet.awaitFirstLoad(2, TimeUnit.MINUTES);
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
     when(response.getStatus()).thenReturn(HttpURLConnection.HTTP_OK);
@@ -63,65 +70,103 @@ public final class OverTimeCasesServletTest {
     when(response.getWriter()).thenReturn(writer);
   }
 
+  /**
+   * Captures bytes written to the response output stream
+   */
+  private void resetResponseOutputStream() throws IOException {
+    outputStream = new ByteArrayOutputStream();
+    when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        outputStream.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {}
+    });
+  }
+
   @Test
   public void servletBehavesCorrectly() throws IOException {
+    resetResponseOutputStream();
     servlet.doGet(request, response);
     verify(response).setContentType("application/json");
     verify(response).setCharacterEncoding("UTF-8");
-    verify(response).getWriter();
+    verify(response).getOutputStream();
     Assert.assertEquals(Collections.<String>emptyList(), response.getHeaderNames());
     Assert.assertEquals(200, response.getStatus());
   }
 
   @Test
   public void servletReturnsCorrectGlobalLocation() throws IOException {
-    resetResponseWriter();
+    resetResponseOutputStream();
     when(request.getParameter("lat")).thenReturn("40.463667");
     when(request.getParameter("lng")).thenReturn("-3.74922");
     servlet.doGet(request, response);
-    Assert.assertTrue(stringWriter.toString().contains("Spain"));
-    Assert.assertTrue(stringWriter.toString().contains("5/17/20"));
-    Assert.assertTrue(stringWriter.toString().contains("[0,"));
-    Assert.assertTrue(stringWriter.toString().contains("cases"));
-    Assert.assertTrue(stringWriter.toString().contains("dates"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("Spain"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("5/17/20"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("[0,"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("cases"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("dates"));
   }
 
   @Test
   public void servletReturnsCorrectUSLocation() throws IOException {
-    resetResponseWriter();
+    resetResponseOutputStream();
     when(request.getParameter("lat")).thenReturn("33.03484597");
     when(request.getParameter("lng")).thenReturn("-116.7365326");
     servlet.doGet(request, response);
-    Assert.assertTrue(stringWriter.toString().contains("San Diego"));
-    Assert.assertTrue(stringWriter.toString().contains("8/23/20"));
-    Assert.assertTrue(stringWriter.toString().contains("[0,"));
-    Assert.assertTrue(stringWriter.toString().contains("cases"));
-    Assert.assertTrue(stringWriter.toString().contains("dates"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("San Diego"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("8/23/20"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("[0,"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("cases"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("dates"));
   }
 
   @Test
   public void servletReturnsCorrectWorldWideCases() throws IOException {
-    resetResponseWriter();
+    resetResponseOutputStream();
     when(request.getParameter("lat")).thenReturn("0.0");
     when(request.getParameter("lng")).thenReturn("0.0");
     servlet.doGet(request, response);
-    Assert.assertTrue(stringWriter.toString().contains("Worldwide"));
-    Assert.assertTrue(stringWriter.toString().contains("1/22/20"));
-    Assert.assertTrue(stringWriter.toString().contains("cases"));
-    Assert.assertTrue(stringWriter.toString().contains("dates"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("Worldwide"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("1/22/20"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("cases"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("dates"));
+  }
+
+  @Test
+  public void servletAnswersNotModifiedForLocationClientHas() throws IOException {
+    resetResponseOutputStream();
+    when(request.getParameter("lat")).thenReturn("40.463667");
+    when(request.getParameter("lng")).thenReturn("-3.74922");
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    servlet.doGet(request, response);
+    verify(response).setHeader(eq("ETag"), etag.capture());
+
+    resetResponseOutputStream();
+    when(request.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    servlet.doGet(request, response);
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals(0, outputStream.size());
   }
 
   @Test
   public void servletReturnsCorrectRecentHeatMapData() throws IOException {
-    resetResponseWriter();
+    resetResponseOutputStream();
     when(request.getParameter("lat")).thenReturn("1000.0");
     when(request.getParameter("lng")).thenReturn("1000.0");
     servlet.doGet(request, response);
-    Assert.assertTrue(stringWriter.toString().contains("lat"));
-    Assert.assertTrue(stringWriter.toString().contains("lng"));
-    Assert.assertTrue(stringWriter.toString().contains("34.30828379"));
-    Assert.assertTrue(stringWriter.toString().contains("-118.228241"));
-    Assert.assertTrue(stringWriter.toString().contains("confirmed"));
-    Assert.assertFalse(stringWriter.toString().contains("US"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("lat"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("lng"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("34.30828379"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("-118.228241"));
+    Assert.assertTrue(outputStream.toString("UTF-8").contains("confirmed"));
+    Assert.assertFalse(outputStream.toString("UTF-8").contains("US"));
   }
 }
@@ -0,0 +1,45 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PolylinesTest {
+  @Test
+  public void decodesDocumentedExample() {
+    double[] points = Polylines.decode("_p~iF~ps|U_ulLnnqC_mqNvxq`@");
+    Assert.assertArrayEquals(
+        new double[] {38.5, -120.2, 40.7, -120.95, 43.252, -126.453}, points, 1e-9);
+  }
+
+  @Test
+  public void emptyPolylineHasNoPoints() {
+    Assert.assertEquals(0, Polylines.decode("").length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void truncatedPolylineIsRejected() {
+    Polylines.decode("_p~iF~ps|");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidCharacterIsRejected() {
+    Polylines.decode("_p~iF ps|U");
+  }
+}
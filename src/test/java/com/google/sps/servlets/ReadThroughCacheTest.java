@@ -0,0 +1,139 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ReadThroughCacheTest {
+  private final AtomicInteger calls = new AtomicInteger();
+
+  // Even keys have a value, odd keys do not
+  private String lookup(long id) {
+    calls.incrementAndGet();
+    return id % 2 == 0 ? "http://example.com/" + id : null;
+  }
+
+  @Test
+  public void loadsOnceThenHits() {
+    ReadThroughCache<Long, String> cache = new ReadThroughCache<Long, String>(10, 0, this::lookup);
+    Assert.assertEquals("http://example.com/2", cache.get(2L));
+    Assert.assertEquals("http://example.com/2", cache.get(2L));
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(1, cache.getLoadCount());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    ReadThroughCache<Long, String> cache = new ReadThroughCache<Long, String>(2, 0, this::lookup);
+    cache.get(2L);
+    cache.get(4L);
+    cache.get(2L);
+    cache.get(6L);
+    Assert.assertEquals(2, cache.size());
+    cache.get(2L);
+    Assert.assertEquals(3, calls.get());
+    cache.get(4L);
+    Assert.assertEquals(4, calls.get());
+  }
+
+  @Test
+  public void stripedCacheStaysWithinItsSize() {
+    ReadThroughCache<Long, String> cache =
+        new ReadThroughCache<Long, String>(4096, 0, this::lookup);
+    for (long id = 0; id < 20000; id += 2) {
+      cache.get(id);
+    }
+    Assert.assertTrue(cache.size() <= 4096);
+    Assert.assertTrue(cache.size() > 3000);
+    // The most recently used key outlives eviction in its stripe
+    cache.get(19998L);
+    Assert.assertEquals(10000, calls.get());
+  }
+
+  @Test
+  public void remembersUnknownKeysUntilExpiry() {
+    ReadThroughCache<Long, String> remembering =
+        new ReadThroughCache<Long, String>(10, 60000, this::lookup);
+    Assert.assertNull(remembering.get(1L));
+    Assert.assertNull(remembering.get(1L));
+    Assert.assertEquals(1, calls.get());
+
+    ReadThroughCache<Long, String> expiring =
+        new ReadThroughCache<Long, String>(10, 0, this::lookup);
+    Assert.assertNull(expiring.get(1L));
+    Assert.assertNull(expiring.get(1L));
+    Assert.assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void failedLoadIsNotCached() {
+    ReadThroughCache<Long, String> cache = new ReadThroughCache<Long, String>(10, 60000, id -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new IllegalStateException("upstream is down");
+      }
+      return "http://example.com/" + id;
+    });
+    try {
+      cache.get(2L);
+      Assert.fail("Expected the load to fail");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("upstream is down", e.getMessage());
+    }
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals("http://example.com/2", cache.get(2L));
+    Assert.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void concurrentMissesShareOneLoad() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    ReadThroughCache<Long, String> cache = new ReadThroughCache<Long, String>(10, 0, id -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return lookup(id);
+    });
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<String>> results = new ArrayList<Future<String>>();
+    for (int i = 0; i < threads; ++i) {
+      results.add(executor.submit(() -> cache.get(8L)));
+    }
+    // Give every thread time to miss before the load finishes
+    Thread.sleep(200);
+    release.countDown();
+    for (Future<String> result : results) {
+      Assert.assertEquals("http://example.com/8", result.get(10, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    Assert.assertEquals(1, calls.get());
+  }
+}
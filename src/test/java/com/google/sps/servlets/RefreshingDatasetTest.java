@@ -0,0 +1,90 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RefreshingDatasetTest {
+  @Test
+  public void startLoadsFirstSnapshot() throws Exception {
+    RefreshingDataset<String> dataset = new RefreshingDataset<String>("test", () -> "loaded");
+    dataset.start();
+    Assert.assertTrue(dataset.awaitFirstLoad(10, TimeUnit.SECONDS));
+    Assert.assertEquals("loaded", dataset.get());
+    Assert.assertEquals(RefreshingDataset.State.READY, dataset.getState());
+    dataset.stop();
+  }
+
+  @Test
+  public void failedLoadLeavesNoSnapshot() throws Exception {
+    RefreshingDataset<String> dataset = new RefreshingDataset<String>("test", () -> {
+      throw new IOException("Unable to open connection");
+    });
+    dataset.start();
+    Assert.assertTrue(dataset.awaitFirstLoad(10, TimeUnit.SECONDS));
+    Assert.assertNull(dataset.get());
+    Assert.assertEquals(RefreshingDataset.State.FAILED, dataset.getState());
+    // The next attempt is a minute away
+    Assert.assertTrue(dataset.retryAfterSeconds() > 50);
+    Assert.assertTrue(dataset.retryAfterSeconds() <= 60);
+    dataset.stop();
+  }
+
+  @Test
+  public void startDoesNotWaitForLoad() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RefreshingDataset<String> dataset = new RefreshingDataset<String>("test", () -> {
+      release.await();
+      return "loaded";
+    });
+    dataset.start();
+    Assert.assertNull(dataset.get());
+    Assert.assertEquals(RefreshingDataset.State.LOADING, dataset.getState());
+
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    dataset.sendUnavailable(response);
+    verify(response).setHeader("Retry-After", "5");
+    verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "test is loading");
+
+    release.countDown();
+    Assert.assertTrue(dataset.awaitFirstLoad(10, TimeUnit.SECONDS));
+    Assert.assertEquals("loaded", dataset.get());
+    dataset.stop();
+  }
+
+  @Test
+  public void nextUpdateIsAfterRolloverTheSameDay() {
+    long delay = RefreshingDataset.millisUntilNextUpdate(Instant.parse("2020-08-24T03:00:00Z"));
+    Assert.assertEquals(TimeUnit.MINUTES.toMillis(2 * 60 + 15), delay);
+  }
+
+  @Test
+  public void nextUpdateIsAfterRolloverTheNextDay() {
+    long delay = RefreshingDataset.millisUntilNextUpdate(Instant.parse("2020-08-24T06:00:00Z"));
+    Assert.assertEquals(TimeUnit.MINUTES.toMillis(23 * 60 + 15), delay);
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RegionRollupTest {
+  private static RegionRollup.Builder counties() {
+    return new RegionRollup.Builder()
+        .add("California", "US", new int[] {1, 5})
+        .add("California", "US", new int[] {2, 7})
+        .add("New York", "US", new int[] {10, 20});
+  }
+
+  @Test
+  public void sumsRowsIntoEveryRegionTheyBelongTo() {
+    RegionRollup regions = new RegionRollup.Builder()
+                               .add("", "Italy", new int[] {4, 8})
+                               .add("Ontario", "Canada", new int[] {1, 1})
+                               .add("Quebec", "Canada", new int[] {2, 3})
+                               .addAll(counties())
+                               .build();
+    Assert.assertArrayEquals(
+        new int[] {3, 12}, regions.getSeries(regions.find("California, US")));
+    Assert.assertArrayEquals(new int[] {13, 32}, regions.getSeries(regions.find("US")));
+    Assert.assertArrayEquals(new int[] {3, 4}, regions.getSeries(regions.find("Canada")));
+    Assert.assertArrayEquals(new int[] {4, 8}, regions.getSeries(regions.find("Italy")));
+    Assert.assertArrayEquals(new int[] {20, 44}, regions.getSeries(regions.find("Worldwide")));
+    int ontario = regions.find("Ontario, Canada");
+    Assert.assertEquals("Canada", regions.getName(regions.getParent(ontario)));
+  }
+
+  @Test
+  public void findsRegionsIgnoringCase() {
+    RegionRollup regions = counties().build();
+    Assert.assertEquals("New York, US", regions.getName(regions.find(" new york, us ")));
+    Assert.assertEquals(-1, regions.find("Texas, US"));
+  }
+
+  @Test
+  public void ignoresExcludedCountries() {
+    RegionRollup regions = new RegionRollup.Builder("US")
+                               .add("", "US", new int[] {100, 200})
+                               .add("", "Italy", new int[] {4, 8})
+                               .addAll(counties())
+                               .build();
+    Assert.assertArrayEquals(new int[] {13, 32}, regions.getSeries(regions.find("US")));
+    Assert.assertArrayEquals(new int[] {17, 40}, regions.getSeries(regions.find("Worldwide")));
+  }
+
+  @Test
+  public void rollsUpDaysSharedByRowsTrackingDifferentDays() {
+    // A data set updated a day later than the other
+    RegionRollup regions = new RegionRollup.Builder()
+                               .add("", "Italy", new int[] {4, 8, 9})
+                               .addAll(counties())
+                               .add("Texas", "US", new int[] {1, 2, 3})
+                               .build();
+    Assert.assertArrayEquals(new int[] {4, 8}, regions.getSeries(regions.find("Italy")));
+    Assert.assertArrayEquals(new int[] {14, 34}, regions.getSeries(regions.find("US")));
+    Assert.assertArrayEquals(new int[] {18, 42}, regions.getSeries(regions.find("Worldwide")));
+  }
+}
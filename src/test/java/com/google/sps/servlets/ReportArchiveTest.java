@@ -0,0 +1,104 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ReportArchiveTest {
+  private static final LocalDate MONDAY = LocalDate.of(2020, 8, 24);
+  private static final LocalDate TUESDAY = LocalDate.of(2020, 8, 25);
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static ReportArchive.Row row(String territory, int confirmed) {
+    return new ReportArchive.Row(territory, 33.034, -116.736, 5, confirmed, 1, 2, 12.5);
+  }
+
+  @Test
+  public void readsAppendedDays() throws Exception {
+    ReportArchive archive = new ReportArchive(folder.getRoot().toPath());
+    archive.open();
+    archive.append(MONDAY, Arrays.asList(row("San Diego", 20), row("Los Angeles", 30)));
+    archive.append(TUESDAY, Arrays.asList(row("Los Angeles", 31)));
+
+    ReportArchive.DayReports monday = archive.get(MONDAY);
+    Assert.assertEquals(2, monday.size());
+    Assert.assertEquals("Los Angeles", monday.getTerritory(1));
+    Assert.assertEquals(30, monday.getConfirmed(1));
+    Assert.assertEquals(33.034, monday.getLat(0), 0.0);
+    Assert.assertEquals(-116.736, monday.getLng(0), 0.0);
+    Assert.assertEquals(12.5, monday.getPerCap(0), 0.0);
+    Assert.assertEquals(31, archive.get(TUESDAY).getConfirmed(0));
+    Assert.assertNull(archive.get(TUESDAY.plusDays(1)));
+  }
+
+  @Test
+  public void reopensWhatWasWritten() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    ReportArchive archive = new ReportArchive(directory);
+    archive.open();
+    archive.append(MONDAY, Arrays.asList(row("San Diego", 20)));
+    archive.append(TUESDAY, Collections.<ReportArchive.Row>emptyList());
+
+    ReportArchive reopened = new ReportArchive(directory);
+    reopened.open();
+    Assert.assertEquals(2, reopened.days());
+    Assert.assertTrue(reopened.contains(TUESDAY));
+    Assert.assertEquals("San Diego", reopened.get(MONDAY).getTerritory(0));
+    // Names already stored are reused
+    reopened.append(TUESDAY.plusDays(1), Arrays.asList(row("San Diego", 22)));
+    Assert.assertEquals("San Diego", reopened.get(TUESDAY.plusDays(1)).getTerritory(0));
+  }
+
+  @Test
+  public void dropsHalfWrittenBlock() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    ReportArchive archive = new ReportArchive(directory);
+    archive.open();
+    archive.append(MONDAY, Arrays.asList(row("San Diego", 20)));
+    archive.append(TUESDAY, Arrays.asList(row("San Diego", 21), row("Los Angeles", 30)));
+    try (FileChannel channel =
+             FileChannel.open(directory.resolve("reports.archive"), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 10);
+    }
+
+    ReportArchive reopened = new ReportArchive(directory);
+    reopened.open();
+    Assert.assertTrue(reopened.contains(MONDAY));
+    Assert.assertFalse(reopened.contains(TUESDAY));
+    reopened.append(TUESDAY, Arrays.asList(row("Los Angeles", 30)));
+    Assert.assertEquals(30, reopened.get(TUESDAY).getConfirmed(0));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void daysAreAppendedOnce() throws Exception {
+    ReportArchive archive = new ReportArchive(folder.getRoot().toPath());
+    archive.open();
+    archive.append(MONDAY, Collections.<ReportArchive.Row>emptyList());
+    archive.append(MONDAY, Collections.<ReportArchive.Row>emptyList());
+  }
+}
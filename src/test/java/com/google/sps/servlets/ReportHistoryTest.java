@@ -0,0 +1,171 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ReportHistoryTest {
+  private static final String CURRENT =
+      "FIPS,Admin2,Province_State,Country_Region,Last_Update,Lat,Long_,Confirmed,"
+      + "Deaths,Recovered,Active,Combined_Key,Incident_Rate,Case_Fatality_Ratio\n"
+      + "6073,San Diego,California,US,2020-08-25,33.034,-116.736,20,1,0,19,"
+      + "\"San Diego, California, US\",5.5,5.0\n";
+  private static final String WITHOUTCOORDINATES = "Province/State,Country/Region,Last Update,"
+      + "Confirmed,Deaths,Recovered\nHubei,Mainland China,1/22/2020 17:00,444,,\n";
+  private static final LocalDate LATEST = ReportHistory.FIRSTDAY.plusDays(2);
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  private HttpServer server;
+  private AtomicInteger downloads;
+  private ReportHistory history;
+
+  @Before
+  public void setUp() throws IOException {
+    downloads = new AtomicInteger();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      downloads.incrementAndGet();
+      // The first day has no coordinates, like the real one
+      String path = exchange.getRequestURI().getPath();
+      String report = path.endsWith(ReportHistory.FILEDATE.format(ReportHistory.FIRSTDAY))
+          ? WITHOUTCOORDINATES
+          : CURRENT;
+      byte[] body = report.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+    history = newHistory();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private ReportHistory newHistory() {
+    String root = "http://localhost:" + server.getAddress().getPort() + "/";
+    return new ReportHistory(new DataFetcher(folder.getRoot().toPath()),
+        day -> root + ReportHistory.FILEDATE.format(day));
+  }
+
+  private static List<ReportArchive.Row> parse(String csv) {
+    return ReportHistory.parseRows(csv.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static ReportArchive.DayReports archive(Path directory, List<ReportArchive.Row> rows)
+      throws Exception {
+    ReportArchive archive = new ReportArchive(directory);
+    archive.open();
+    archive.append(ReportHistory.FIRSTDAY, rows);
+    return archive.get(ReportHistory.FIRSTDAY);
+  }
+
+  @Test
+  public void readsCurrentFormat() throws Exception {
+    ReportArchive.DayReports reports = archive(folder.getRoot().toPath(),
+        parse("FIPS,Admin2,Province_State,Country_Region,Last_Update,Lat,Long_,Confirmed,"
+            + "Deaths,Recovered,Active,Combined_Key,Incident_Rate,Case_Fatality_Ratio\n"
+            + "6073,San Diego,California,US,2020-08-25,33.034,-116.736,20,1,0,19,"
+            + "\"San Diego, California, US\",5.5,5.0\n"
+            + ",,,Antarctica,2020-08-25,,,0,0,0,0,Antarctica,,\n"));
+    Assert.assertEquals(1, reports.size());
+    Assert.assertEquals("San Diego", reports.getTerritory(0));
+    Assert.assertEquals(19, reports.getActive(0));
+    Assert.assertEquals(5.5, reports.getPerCap(0), 0.0);
+  }
+
+  @Test
+  public void readsEarlyFormat() throws Exception {
+    ReportArchive.DayReports reports = archive(folder.getRoot().toPath(),
+        parse("Province/State,Country/Region,Last Update,Confirmed,Deaths,Recovered,"
+            + "Latitude,Longitude\n"
+            + ",Italy,2020-03-10T18:13:22,10149,631,1004,43.0,12.0\n"));
+    Assert.assertEquals(1, reports.size());
+    Assert.assertEquals("Italy", reports.getTerritory(0));
+    // Active was not reported yet, so it is derived
+    Assert.assertEquals(10149 - 631 - 1004, reports.getActive(0));
+    Assert.assertEquals(0.0, reports.getPerCap(0), 0.0);
+  }
+
+  @Test
+  public void reportsWithoutCoordinatesAreLeftOut() {
+    Assert.assertTrue(parse("Province/State,Country/Region,Last Update,Confirmed,Deaths,"
+        + "Recovered\nHubei,Mainland China,1/22/2020 17:00,444,,\n").isEmpty());
+  }
+
+  @Test
+  public void archivesDayWhenFirstAskedFor() throws Exception {
+    LocalDate day = ReportHistory.FIRSTDAY.plusDays(1);
+    Assert.assertEquals("San Diego", history.get(day, LATEST).getTerritory(0));
+    Assert.assertEquals(19, history.get(day, LATEST).getActive(0));
+    Assert.assertEquals(1, downloads.get());
+  }
+
+  @Test
+  public void dayWithoutCoordinatesIsRememberedAsMissing() throws Exception {
+    Assert.assertNull(history.get(ReportHistory.FIRSTDAY, LATEST));
+    Assert.assertNull(history.get(ReportHistory.FIRSTDAY, LATEST));
+    Assert.assertEquals(1, downloads.get());
+  }
+
+  @Test
+  public void daysWithoutReportsAreNotLookedFor() throws Exception {
+    Assert.assertNull(history.get(ReportHistory.FIRSTDAY.minusDays(1), LATEST));
+    Assert.assertNull(history.get(LATEST.plusDays(1), LATEST));
+    Assert.assertEquals(0, downloads.get());
+  }
+
+  @Test(expected = IOException.class)
+  public void failedDownloadIsAnError() throws Exception {
+    server.stop(0);
+    history.get(LATEST, LATEST);
+  }
+
+  @Test
+  public void archivedDaysOutliveTheHistory() throws Exception {
+    history.get(LATEST, LATEST);
+    server.stop(0);
+    ReportArchive.DayReports reports = newHistory().get(LATEST, LATEST);
+    Assert.assertEquals(1, reports.size());
+    Assert.assertEquals(1, downloads.get());
+  }
+
+  @Test
+  public void urlNamesTheDay() {
+    Assert.assertTrue(
+        ReportHistory.url(LocalDate.of(2020, 3, 9)).endsWith("_daily_reports/03-09-2020.csv"));
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SeriesWindowTest {
+  private static final LocalDate FIRST = LocalDate.of(2020, 1, 22);
+
+  // Cumulative series where day i has i * 10 cases
+  private static int[] series(int days) {
+    int[] series = new int[days];
+    for (int i = 0; i < days; ++i) {
+      series[i] = i * 10;
+    }
+    return series;
+  }
+
+  @Test
+  public void dailyWindowKeepsDaysBetweenDates() {
+    SeriesWindow window = SeriesWindow.of(FIRST, 30, LocalDate.of(2020, 1, 25),
+        LocalDate.of(2020, 1, 27), SeriesWindow.Step.DAILY);
+    Assert.assertArrayEquals(new int[] {30, 40, 50}, window.sample(series(30)));
+    Assert.assertEquals(LocalDate.of(2020, 1, 27), window.getDate(2));
+    Assert.assertEquals(Arrays.asList("c", "d"),
+        SeriesWindow.of(FIRST, 4, LocalDate.of(2020, 1, 24), null, SeriesWindow.Step.DAILY)
+            .sample(Arrays.asList("a", "b", "c", "d")));
+  }
+
+  @Test
+  public void datesOutsideSeriesAreClamped() {
+    SeriesWindow window = SeriesWindow.of(FIRST, 5, LocalDate.of(2019, 12, 1),
+        LocalDate.of(2021, 1, 1), SeriesWindow.Step.DAILY);
+    Assert.assertEquals(5, window.size());
+    SeriesWindow empty = SeriesWindow.of(
+        FIRST, 5, LocalDate.of(2020, 2, 1), LocalDate.of(2020, 1, 1), SeriesWindow.Step.DAILY);
+    Assert.assertEquals(0, empty.size());
+  }
+
+  @Test
+  public void weeklyWindowCountsBackFromLastDay() {
+    SeriesWindow window = SeriesWindow.of(FIRST, 20, null, null, SeriesWindow.Step.WEEKLY);
+    Assert.assertArrayEquals(new int[] {50, 120, 190}, window.sample(series(20)));
+  }
+
+  @Test
+  public void monthlyWindowStepsByCalendarMonth() {
+    // 1/22/20 plus 69 days is 3/31/20, so the previous months end on their last day
+    SeriesWindow window = SeriesWindow.of(FIRST, 70, null, null, SeriesWindow.Step.MONTHLY);
+    Assert.assertEquals(3, window.size());
+    Assert.assertEquals(LocalDate.of(2020, 1, 31), window.getDate(0));
+    Assert.assertEquals(LocalDate.of(2020, 2, 29), window.getDate(1));
+    Assert.assertEquals(LocalDate.of(2020, 3, 31), window.getDate(2));
+  }
+
+  @Test
+  public void windowsAreEqualWhenTheyPickTheSameDays() {
+    // Both step back to 2/29/20, but end on different days
+    SeriesWindow toMarch29 = SeriesWindow.of(FIRST, 70, LocalDate.of(2020, 2, 15),
+        LocalDate.of(2020, 3, 29), SeriesWindow.Step.MONTHLY);
+    SeriesWindow toMarch31 = SeriesWindow.of(FIRST, 70, LocalDate.of(2020, 2, 15),
+        LocalDate.of(2020, 3, 31), SeriesWindow.Step.MONTHLY);
+    Assert.assertEquals(toMarch29.getDate(0), toMarch31.getDate(0));
+    Assert.assertEquals(toMarch29.size(), toMarch31.size());
+    Assert.assertNotEquals(toMarch29, toMarch31);
+    // Dates past the end of the series pick the same days as its last date
+    SeriesWindow clamped = SeriesWindow.of(FIRST, 70, LocalDate.of(2020, 2, 15),
+        LocalDate.of(2021, 1, 1), SeriesWindow.Step.MONTHLY);
+    Assert.assertEquals(toMarch31, clamped);
+    Assert.assertEquals(toMarch31.hashCode(), clamped.hashCode());
+  }
+
+  @Test
+  public void deltasStartWithFirstCount() {
+    Assert.assertArrayEquals(
+        new int[] {5, 2, 0, -1}, SeriesWindow.deltas(new int[] {5, 7, 7, 6}));
+    Assert.assertEquals(0, SeriesWindow.deltas(new int[0]).length);
+  }
+
+  @Test
+  public void movingAverageCountsNewCasesOverWindow() {
+    // Day i has i * 10 cases, so every full window adds 10 a day
+    Assert.assertArrayEquals(new double[] {0.0, 3.33, 6.67, 10.0, 10.0},
+        SeriesWindow.movingAverage(series(5), 3), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownStepIsRejected() {
+    SeriesWindow.Step.parse("hourly");
+  }
+}
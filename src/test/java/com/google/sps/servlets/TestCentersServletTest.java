@@ -17,11 +17,20 @@ package com.google.sps.servlets;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -43,10 +52,11 @@ public final class TestCentersServletTest {
   private PrintWriter writer;
 
   @Before
-  public void setUp() throws IOException {
+  public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
     servlet = new TestCentersServlet();
     servlet.init();
+    servlet.awaitFirstLoad(2, TimeUnit.MINUTES);
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
     when(response.getStatus()).thenReturn(HttpURLConnection.HTTP_OK);
@@ -116,4 +126,91 @@ public final class TestCentersServletTest {
     Assert.assertTrue(stringWriter.toString().contains("CVS Health"));
     Assert.assertTrue(stringWriter.toString().contains("Pure Care Pharmacy"));
   }
+
+  @Test
+  public void servletRejectsInvalidLimit() throws IOException {
+    resetResponseWriter();
+    when(request.getParameter("limit")).thenReturn("ten");
+    servlet.doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit");
+  }
+
+  @Test
+  public void servletRejectsInvalidZoom() throws IOException {
+    resetResponseWriter();
+    when(request.getParameter("zoom")).thenReturn("4.5");
+    servlet.doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid zoom");
+  }
+
+  /**
+   * @return stream of the JSON, written with single quotes for readability
+   */
+  private static InputStream json(String text) {
+    return new ByteArrayInputStream(text.replace('\'', '"').getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void readsFieldsInAnyOrderAndSkipsUnknownOnes() throws IOException {
+    Set<TestCentersServlet.Center> centers = new HashSet<TestCentersServlet.Center>();
+    new TestCentersServlet().readCenterPage(json("{'fields': [{'name': 'x'}], 'features': ["
+        + "{'geometry': {'y': 32.7, 'spatialReference': {'wkid': 4326}, 'x': -117.1},"
+        + " 'extra': [1, 2], 'attributes': {'operhours': '9-5', 'OBJECTID': 4, 'name': 'CVS',"
+        + " 'phone': '555', 'fulladdr': '1 Main St'}}], 'extra': {'a': [true]}}"),
+        centers);
+    Assert.assertEquals(1, centers.size());
+    TestCentersServlet.Center center = centers.iterator().next();
+    Assert.assertEquals(32.7, center.getLat(), 0.0);
+    Assert.assertEquals(-117.1, center.getLng(), 0.0);
+    Assert.assertEquals("Lat: 32.7; Lng: -117.1; Name: CVS; Address: 1 Main St; Phone: 555;"
+        + " Hours: 9-5", center.toString());
+  }
+
+  @Test
+  public void usesUnknownForNullAttributes() throws IOException {
+    Set<TestCentersServlet.Center> centers = new HashSet<TestCentersServlet.Center>();
+    new TestCentersServlet().readCenterPage(json("{'features': [{'attributes': {'name': null,"
+        + " 'fulladdr': '1 Main St', 'phone': null}, 'geometry': {'x': 1.5, 'y': 2.5}}]}"),
+        centers);
+    Assert.assertEquals("Lat: 2.5; Lng: 1.5; Name: Unknown; Address: 1 Main St;"
+        + " Phone: Unknown; Hours: Unknown", centers.iterator().next().toString());
+  }
+
+  @Test
+  public void skipsFeaturesWithoutGeometry() throws IOException {
+    Set<TestCentersServlet.Center> centers = new HashSet<TestCentersServlet.Center>();
+    new TestCentersServlet().readCenterPage(
+        json("{'features': [{'attributes': {'name': 'a'}}, {'attributes': {'name': 'b'},"
+            + " 'geometry': null}, {'attributes': {'name': 'c'}, 'geometry': {'x': 1.0}},"
+            + " {'attributes': {'name': 'd'}, 'geometry': {'x': 1.0, 'y': 2.0}}]}"),
+        centers);
+    Assert.assertEquals(1, centers.size());
+    Assert.assertTrue(centers.iterator().next().toString().contains("Name: d"));
+  }
+
+  @Test
+  public void followsPagesWhileTransferLimitIsExceeded() throws IOException {
+    String feature = "{'attributes': {'name': 'a'}, 'geometry': {'x': 1.0, 'y': 2.0}}";
+    List<Integer> offsets = new ArrayList<Integer>();
+    Set<TestCentersServlet.Center> centers = new HashSet<TestCentersServlet.Center>();
+    new TestCentersServlet().fillCenterSet(centers, resultOffset -> {
+      offsets.add(resultOffset);
+      if (resultOffset == 0) {
+        return json("{'exceededTransferLimit': true, 'features': [" + feature + ", "
+            + feature + "]}");
+      }
+      if (resultOffset == 2) {
+        return json("{'features': [" + feature + "], 'exceededTransferLimit': true}");
+      }
+      return json("{'features': [" + feature + "]}");
+    });
+    Assert.assertEquals(Arrays.asList(0, 2, 3), offsets);
+    Assert.assertEquals(4, centers.size());
+  }
+
+  @Test(expected = IOException.class)
+  public void failsWhenQueryReturnsError() throws IOException {
+    new TestCentersServlet().readCenterPage(
+        json("{'error': {'code': 400}}"), new HashSet<TestCentersServlet.Center>());
+  }
 }
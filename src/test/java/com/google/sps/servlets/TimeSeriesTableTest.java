@@ -0,0 +1,91 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TimeSeriesTableTest {
+  @Test
+  public void storesRowsByLocationAndDay() {
+    TimeSeriesTable.Builder builder =
+        new TimeSeriesTable.Builder(Arrays.asList("1/22/20", "1/23/20", "1/24/20"));
+    // More rows than the initial capacity to exercise growing the columns
+    for (int i = 0; i < 40; ++i) {
+      builder.add("Location " + i, i, -i, new int[] {i, i * 2, i * 3});
+    }
+    TimeSeriesTable table = builder.build();
+    Assert.assertEquals(40, table.size());
+    Assert.assertEquals(3, table.days());
+    Assert.assertEquals("1/24/20", table.getDates().get(2));
+    Assert.assertEquals("Location 17", table.getLocation(17));
+    Assert.assertEquals(-17.0, table.getLng(17), 0.0);
+    Assert.assertArrayEquals(new int[] {39, 78, 117}, table.getSeries(39));
+  }
+
+  @Test
+  public void newCasesIsDifferenceOfTotals() {
+    TimeSeriesTable table =
+        new TimeSeriesTable.Builder(Arrays.asList("1/22/20", "1/23/20", "1/24/20"))
+            .add("San Diego", 33.0, -116.7, new int[] {1, 5, 12})
+            .build();
+    Assert.assertEquals(11, table.newCases(0, 0, 2));
+    Assert.assertEquals(7, table.newCases(0, 1, 2));
+    // Days before the first tracked day have no cases
+    Assert.assertEquals(12, table.newCases(0, -5, 2));
+  }
+
+  @Test
+  public void emptyTableHasNoRows() {
+    TimeSeriesTable table = new TimeSeriesTable.Builder(Collections.<String>emptyList()).build();
+    Assert.assertEquals(0, table.size());
+    Assert.assertEquals(0, table.days());
+  }
+
+  @Test
+  public void firstDaysKeepsEarlyCountsOfEveryLocation() {
+    TimeSeriesTable table =
+        new TimeSeriesTable.Builder(Arrays.asList("1/22/20", "1/23/20", "1/24/20"))
+            .add("San Diego", 33.0, -116.7, new int[] {1, 5, 12})
+            .add("Los Angeles", 34.3, -118.2, new int[] {2, 7, 9})
+            .build();
+    TimeSeriesTable shorter = table.firstDays(2);
+    Assert.assertEquals(Arrays.asList("1/22/20", "1/23/20"), shorter.getDates());
+    Assert.assertArrayEquals(new int[] {2, 7}, shorter.getSeries(1));
+    Assert.assertSame(table, table.firstDays(3));
+  }
+
+  @Test
+  public void concatKeepsRowsInOrder() {
+    TimeSeriesTable first = new TimeSeriesTable.Builder(Arrays.asList("1/22/20", "1/23/20"))
+                                .add("San Diego", 33.0, -116.7, new int[] {1, 5})
+                                .build();
+    TimeSeriesTable second = new TimeSeriesTable.Builder(Arrays.asList("1/22/20", "1/23/20"))
+                                 .add("Los Angeles", 34.3, -118.2, new int[] {2, 7})
+                                 .add("Orange", 33.7, -117.8, new int[] {0, 4})
+                                 .build();
+    TimeSeriesTable table =
+        TimeSeriesTable.concat(first.getDates(), Arrays.asList(first, second));
+    Assert.assertEquals(3, table.size());
+    Assert.assertEquals("Los Angeles", table.getLocation(1));
+    Assert.assertEquals(-117.8, table.getLng(2), 0.0);
+    Assert.assertArrayEquals(new int[] {0, 4}, table.getSeries(2));
+  }
+}